@@ -0,0 +1,60 @@
+package com.chess;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+
+public class Bench {
+
+    /*
+                      ! Bench !
+       searches a fixed set of positions to a fixed depth, one thread
+       and a fresh engine each. the total node count is a signature of
+       the search: it only changes when the search or the evaluation
+       does, so a change meant to be a pure speedup must keep it
+                                                                     */
+    public static final String[] positions = {
+        "r3k2r/p1ppqpb1/bn2pnp1/3PN3/1p2P3/2N2Q1p/PPPBBPPP/R3K2R w KQkq - 0 1",
+        "rnbqkbnr/pppppppp/8/8/8/8/PPPPPPPP/RNBQKBNR w KQkq - 0 1",
+        "r4rk1/1pp1qppp/p1np1n2/2b1p1B1/2B1P1b1/P1NP1N2/1PP1QPPP/R4RK1 w - - 0 10",
+        "8/2p5/3p4/KP5r/1R3p1k/8/4P1P1/8 w - - 0 1",
+        "r1bq1rk1/pp2bppp/2n1pn2/3p4/2PP4/2N1PN2/PP3PPP/R2QKB1R w KQ - 0 8",
+        "6k1/5ppp/8/8/8/8/5PPP/3R2K1 w - - 0 1",
+    };
+
+
+    // returns the total node count, the search output is left out
+    public static long run(int depth) {
+        PrintStream out = System.out;
+        long nodes = 0L, time = 0L;
+
+
+        for (int i = 0; i < positions.length; i++) {
+            Board board = new Board();
+            board.setFen(positions[i]);
+            Engine engine = new Engine(board);
+            TimeLimit limit = new TimeLimit();
+            limit.depth = depth;
+
+
+            System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+            long start = System.nanoTime();
+            try { engine.search(limit); }
+            finally { System.setOut(out); }
+            time += System.nanoTime() - start;
+            nodes += engine.totalNodes();
+            System.out.printf("Position %d/%d: %d nodes%n", i + 1, positions.length, engine.totalNodes());
+        }
+
+
+        long millis = Math.max(1L, time / 1000000L);
+        System.out.printf("%nTotal time (ms) : %d%nNodes searched  : %d%nNodes/second    : %d%n", millis, nodes, nodes * 1000L / millis);
+        return nodes;
+    }
+
+
+    public static void main(String[] args) {
+        run(args.length > 0 ? Integer.parseInt(args[0]) : 8);
+    }
+
+
+}
@@ -1,6 +1,9 @@
 package com.chess;
 
 
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.util.ArrayList;
 import java.util.Arrays;
 
@@ -12,6 +15,8 @@ public class Bitboard {
 
     private static final long[][] betweenBB = new long[64][64];
     public static final long[][] lineBB = new long[64][64];
+    // squares strictly between two aligned squares, empty when they are not aligned
+    public static final long[][] betweenSquares = new long[64][64];
 
 
     public static final long lightSquares = 0x55AA55AA55AA55AAL;
@@ -49,9 +54,39 @@ public class Bitboard {
     private static final long[] rankAttacks = new long[64];
 
 
+    /*
+                  ! Slider attacks !
+       classic   obstruction difference over the four rays of the square
+       magic     fancy magic bitboards, (occupancy & mask) * magic >>> shift
+       pext      Long.compress(occupancy, mask), only when the runtime has it
+
+       pick one with -Dsliders=classic|magic|pext, magic is the default
+       and pext falls back to magic when Long.compress is missing
+                                                                     */
+    public static final int CLASSIC = 0;
+    public static final int MAGIC = 1;
+    public static final int PEXT = 2;
+    private static final MethodHandle compress = findCompress();
+    public static final int sliders = sliderImplementation(System.getProperty("sliders", "magic"));
+
+
+    private static final long[] bishopMasks = new long[64];
+    private static final long[] bishopMagics = new long[64];
+    private static final int[] bishopShifts = new int[64];
+    private static final int[] bishopOffsets = new int[64];
+    private static final long[] bishopTable = new long[5248];
+    private static final long[] rookMasks = new long[64];
+    private static final long[] rookMagics = new long[64];
+    private static final int[] rookShifts = new int[64];
+    private static final int[] rookOffsets = new int[64];
+    private static final long[] rookTable = new long[102400];
+
+
     public static final long[][] pawnAttacks = new long[2][64];
     public static final long[] knightAttacks = new long[64];
     public static final long[] kingAttacks = new long[64];
+    private static final long[][] forwardFiles = new long[2][64];
+    private static final long[][] passedMasks = new long[2][64];
 
 
     static {
@@ -61,13 +96,22 @@ public class Bitboard {
             H1A8Attacks[i] = maskDiagonalH1A8(square);
             fileAttacks[i] = maskFileAttacks(square);
             rankAttacks[i] = maskRankAttacks(square);
+            for (int j = 0; j < 64; j++)
+                betweenBB[i][j] = ((1L << j) | ((1L << j) - (1L << i)));
         }
+        initSliders(PieceType.BISHOP, bishopMasks, bishopMagics, bishopShifts, bishopOffsets, bishopTable);
+        initSliders(PieceType.ROOK, rookMasks, rookMagics, rookShifts, rookOffsets, rookTable);
 
 
         for (int i = 0; i < 64; i++) {
             Square square = squareAt(i);
             pawnAttacks[0][i] = maskPawnAttacks(Side.WHITE, square);
             pawnAttacks[1][i] = maskPawnAttacks(Side.BLACK, square);
+            for (Side side : Side.allSides) {
+                forwardFiles[side.ordinal()][i] = forwardRankBB(side, square.rank()) & fileBB(square);
+                passedMasks[side.ordinal()][i] = (adjacentFiles(square.file()) & forwardRankBB(side, square.rank()))
+                                               | forwardFiles[side.ordinal()][i];
+            }
             knightAttacks[i] = maskKnightAttacks(square);
             kingAttacks[i] = maskKingAttacks(square);
 
@@ -80,33 +124,119 @@ public class Bitboard {
                         long jAttacks = pseudoAttacks(null, pt, squareAt(j));
                         lineBB[i][j] = (iAttacks & jAttacks) | squareBB(i) | squareBB(j);
                     }
-                    betweenBB[i][j] = ((1L << j) | ((1L << j) - (1L << i)));
                 }
             }
         }
+
+
+        for (int i = 0; i < 64; i++) {
+            for (int j = 0; j < 64; j++) {
+                int low = Math.min(i, j);
+                int high = Math.max(i, j);
+                betweenSquares[i][j] = lineBB[i][j] & ((1L << high) - (1L << low)) & ~(1L << low);
+            }
+        }
+    }
+
+
+    private static MethodHandle findCompress() {
+        try {
+            return MethodHandles.lookup().findStatic(Long.class, "compress",
+                    MethodType.methodType(long.class, long.class, long.class));
+        }
+        catch (ReflectiveOperationException e) { return null; }
+    }
+
+
+    private static int sliderImplementation(String name) {
+        return switch (name.toLowerCase()) {
+            case "classic" -> CLASSIC;
+            case "pext" -> compress != null ? PEXT : MAGIC;
+            default -> MAGIC;
+        };
     }
 
 
-    private static int randomState = 1804289383;
+    private static void initSliders(PieceType pt, long[] masks, long[] magics, int[] shifts, int[] offsets, long[] table) {
+        // seeds by rank that find every magic quickly, the same ones Stockfish uses
+        final long[] seeds = {728, 10316, 55013, 32803, 12281, 15100, 16645, 255};
+        long[] occupancies = new long[4096];
+        long[] references = new long[4096];
+        int[] epoch = new int[4096];
+        int offset = 0, count = 0;
+
+
+        for (int i = 0; i < 64; i++) {
+            Square square = squareAt(i);
+            long edges = ((rankBB(RANK_1) | rankBB(RANK_8)) & ~rankBB(square))
+                       | ((fileBB(FILE_A) | fileBB(FILE_H)) & ~fileBB(square));
+            masks[i] = classicSliderAttacks(pt, square, 0L) & ~edges;
+            shifts[i] = 64 - Long.bitCount(masks[i]);
+            offsets[i] = offset;
+
+
+            // enumerate every subset of the mask with the carry rippler trick
+            int size = 0;
+            long b = 0L;
+            do {
+                occupancies[size] = b;
+                references[size] = classicSliderAttacks(pt, square, b);
+                size++;
+                b = (b - masks[i]) & masks[i];
+            } while (b != 0L);
+
+
+            // subsets come out in compress order, which is the pext index
+            if (sliders == PEXT) {
+                System.arraycopy(references, 0, table, offset, size);
+                offset += size;
+                continue;
+            }
+
+
+            long[] state = {seeds[square.rank().ordinal()]};
+            for (int j = 0; j < size; ) {
+                long magic = 0L;
+                while (Long.bitCount((magic * masks[i]) >>> 56) < 6)
+                    magic = sparseRandom(state);
+                magics[i] = magic;
+
+
+                count++;
+                for (j = 0; j < size; j++) {
+                    int index = offset + (int) ((occupancies[j] * magic) >>> shifts[i]);
+                    if (epoch[index - offset] < count) {
+                        epoch[index - offset] = count;
+                        table[index] = references[j];
+                    } else if (table[index] != references[j])
+                        break;
+                }
+            }
+            offset += size;
+        }
+    }
 
 
-    public static int random32() {
-        int number = randomState;
-        number ^= number << 13;
-        number ^= number >> 17;
-        number ^= number << 5;
-        randomState = number;
-        return number;
+    private static long sparseRandom(long[] state) {
+        return xorshift64star(state) & xorshift64star(state) & xorshift64star(state);
     }
+    private static long xorshift64star(long[] state) {
+        long s = state[0];
+        s ^= s >>> 12;
+        s ^= s << 25;
+        s ^= s >>> 27;
+        state[0] = s;
+        return s * 2685821657736338717L;
+    }
+
+
+    // the zobrist keys need all 64 bits random, the transposition table, the
+    // caches and the cuckoo tables trust a matching key without a position check
+    private static final long[] randomState = {1070372L};
 
 
     public static long random64() {
-        long a, b, c, d;
-        a = (long) (random32()) & 0xFFFF;
-        b = (long) (random32()) & 0xFFFF;
-        c = (long) (random32()) & 0xFFFF;
-        d = (long) (random32()) & 0xFFFF;
-        return a | (b << 16) | (c << 32) | (d << 48);
+        return xorshift64star(randomState);
     }
 
 
@@ -186,7 +316,10 @@ public class Bitboard {
 
 
     public static long doubleAttackPawn(Side side, long occupancy) {
-        return (side.equals(Side.WHITE)
+        return doubleAttackPawn(side.ordinal(), occupancy);
+    }
+    public static long doubleAttackPawn(int side, long occupancy) {
+        return (side == 0
                 ? (occupancy & ~fileBB(FILE_A)) << 7 & (occupancy & ~fileBB(FILE_H)) << 9
                 : (occupancy & ~fileBB(FILE_A)) >> 9 & (occupancy & ~fileBB(FILE_H)) >> 7);
     }
@@ -219,18 +352,56 @@ public class Bitboard {
 
 
     public static long bishopAttacks(Square square, long mask) {
+        return bishopAttacks(square.ordinal(), mask);
+    }
+    public static long bishopAttacks(int i, long mask) {
+        return switch (sliders) {
+            case MAGIC -> bishopTable[bishopOffsets[i] + (int) (((mask & bishopMasks[i]) * bishopMagics[i]) >>> bishopShifts[i])];
+            case PEXT -> bishopTable[bishopOffsets[i] + (int) pext(mask, bishopMasks[i])];
+            default -> classicBishopAttacks(squareAt(i), mask);
+        };
+    }
+
+
+    public static long rookAttacks(Square square, long mask) {
+        return rookAttacks(square.ordinal(), mask);
+    }
+    public static long rookAttacks(int i, long mask) {
+        return switch (sliders) {
+            case MAGIC -> rookTable[rookOffsets[i] + (int) (((mask & rookMasks[i]) * rookMagics[i]) >>> rookShifts[i])];
+            case PEXT -> rookTable[rookOffsets[i] + (int) pext(mask, rookMasks[i])];
+            default -> classicRookAttacks(squareAt(i), mask);
+        };
+    }
+
+
+    private static long pext(long bb, long mask) {
+        try { return (long) compress.invokeExact(bb, mask); }
+        catch (Throwable e) { throw new IllegalStateException(e); }
+    }
+
+
+    public static long classicBishopAttacks(Square square, long mask) {
         return sliderAttacks(square, A1H8Attacks[square.ordinal()], mask) |
                 sliderAttacks(square, H1A8Attacks[square.ordinal()], mask);
     }
 
 
-    public static long rookAttacks(Square square, long mask) {
+    public static long classicRookAttacks(Square square, long mask) {
         return sliderAttacks(square, rankAttacks[square.ordinal()], mask) |
                 sliderAttacks(square, fileAttacks[square.ordinal()], mask);
     }
 
 
+    private static long classicSliderAttacks(PieceType pt, Square square, long mask) {
+        return pt.equals(PieceType.BISHOP) ? classicBishopAttacks(square, mask) : classicRookAttacks(square, mask);
+    }
+
+
     public static long queenAttacks(Square square, long mask) {
+        return queenAttacks(square.ordinal(), mask);
+    }
+    public static long queenAttacks(int square, long mask) {
         return bishopAttacks(square, mask) |
                 rookAttacks(square, mask);
     }
@@ -249,13 +420,31 @@ public class Bitboard {
     }
 
 
+    public static long pseudoAttacks(int piece, int square) {
+        return switch (piece) {
+            case 0 -> pawnAttacks[0][square];
+            case 6 -> pawnAttacks[1][square];
+            case 1, 7 -> knightAttacks[square];
+            case 2, 8 -> bishopAttacks(square, 0L);
+            case 3, 9 -> rookAttacks(square, 0L);
+            case 4, 10 -> queenAttacks(square, 0L);
+            case 5, 11 -> kingAttacks[square];
+            default -> 0L;
+        };
+    }
+
+
+    public static long pawnAttacks(int side, long pawns) {
+        if (side == 0)
+            return (pawns << 7) & ~fileBB(FILE_H) | (pawns << 9) & ~fileBB(FILE_A);
+        else
+            return (pawns >> 7) & ~fileBB(FILE_A) | (pawns >> 9) & ~fileBB(FILE_H);
+    }
+
+
     public static long pseudoAttacks(Side side, PieceType pt, long occupancy) {
-        if (pt.equals(PieceType.PAWN)) {
-            if (side.equals(Side.WHITE))
-                return (occupancy << 7) & ~fileBB(FILE_H) | (occupancy << 9) & ~fileBB(FILE_A);
-            else
-                return (occupancy >> 7) & ~fileBB(FILE_A) | (occupancy >> 9) & ~fileBB(FILE_H);
-        }
+        if (pt.equals(PieceType.PAWN))
+            return pawnAttacks(side.ordinal(), occupancy);
 
 
         long attacks = 0L;
@@ -279,37 +468,53 @@ public class Bitboard {
 
 
     public static long forwardRankBB(Side side, Rank rank) {
-        return (side.equals(Side.WHITE)
-                ? ~rankBB(RANK_1) << (8 * relativeRank(side, rank).ordinal())
-                : ~rankBB(RANK_8) >> (8 * relativeRank(side, rank).ordinal()));
+        return forwardRankBB(side.ordinal(), rank.ordinal());
+    }
+    public static long forwardRankBB(int side, int rank) {
+        return (side == 0
+                ? ~rankBB(RANK_1) << (8 * rank)
+                : ~rankBB(RANK_8) >> (8 * (rank ^ 7)));
     }
 
 
     public static long forwardFileBB(Side side, Square square) {
-        return forwardRankBB(side, square.rank()) & fileBB(square);
+        return forwardFiles[side.ordinal()][square.ordinal()];
+    }
+    public static long forwardFileBB(int side, int square) {
+        return forwardFiles[side][square];
     }
 
 
     public static long shiftUp(Side side, long bb) {
-        return (side.equals(Side.WHITE) ? bb << 8 : bb >> 8);
+        return shiftUp(side.ordinal(), bb);
+    }
+    public static long shiftUp(int side, long bb) {
+        return (side == 0 ? bb << 8 : bb >> 8);
     }
 
 
     public static long shiftDown(Side side, long bb) {
-        return (side.equals(Side.WHITE) ? bb >> 8 : bb << 8);
+        return shiftDown(side.ordinal(), bb);
+    }
+    public static long shiftDown(int side, long bb) {
+        return (side == 0 ? bb >> 8 : bb << 8);
     }
 
 
     public static long adjacentFiles(File file) {
+        return adjacentFiles(file.ordinal());
+    }
+    public static long adjacentFiles(int file) {
         return (fileBB(file) << 1 & ~fileBB(FILE_A)) |
                 (fileBB(file) >> 1 & ~fileBB(FILE_H));
     }
 
 
     public static long passedMaskBB(Side side, Square square) {
-        return ((adjacentFiles(square.file()) &
-                forwardRankBB(side, square.rank())) |
-                forwardFileBB(side, square));
+        return passedMasks[side.ordinal()][square.ordinal()];
+    }
+    public static long passedMaskBB(int side, int square) {
+        return passedMasks[side][square];
     }
 
 
@@ -329,14 +534,15 @@ public class Bitboard {
         return betweenBB[i][j] & bb;
     }
     public static Square frontMostSquare(Side side, long bb) {
-        return (side.equals(Side.WHITE)
-                ? squareAt(msb(bb))
-                : squareAt(lsb(bb)));
+        return squareAt(frontMostSquare(side.ordinal(), bb));
+    }
+    public static int frontMostSquare(int side, long bb) {
+        return (side == 0 ? msb(bb) : lsb(bb));
     }
 
 
     public static long rankBB(int index) {
-        return rankBB(rankAt(index));
+        return 0xFFL << (8 * index);
     }
     public static long rankBB(Square square) {
         return rankBB(square.rank());
@@ -347,7 +553,7 @@ public class Bitboard {
 
 
     public static long fileBB(int index) {
-        return fileBB(fileAt(index));
+        return 0x101010101010101L << index;
     }
     public static long fileBB(Square square) {
         return fileBB(square.file());
@@ -358,7 +564,7 @@ public class Bitboard {
 
 
     public static long squareBB(int index) {
-        return squareBB(squareAt(index));
+        return 1L << index;
     }
     public static long squareBB(Square square) {
         return square.bitboard();
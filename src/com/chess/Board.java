@@ -14,6 +14,8 @@ import static com.chess.Move.*;
 import static com.chess.ScoreConstants.*;
 import static com.chess.Score.*;
 import static com.chess.SearchConstants.*;
+import static com.chess.IntegerUtil.*;
+import static com.chess.BoardConstants.*;
 
 public class Board {
 
@@ -21,6 +23,7 @@ public class Board {
     public static final long[] enPassantKeys = new long[64];
     public static final long[] castlingKeys = new long[16];
     public static final long sideKey;
+    public static final long noPawnsKey;
 
 
     static {
@@ -32,23 +35,98 @@ public class Board {
         for (int i = 0; i <= 15; i++)
             castlingKeys[i] = random64();
         sideKey = random64();
+        noPawnsKey = random64();
     }
 
 
-    private final LinkedList<Backup> backups;
-    private final Square[] kingSquares;
-    private final long[] repetitionTable;
+    /*
+                      ! Cuckoo tables !
+       every reversible move of a piece other than a pawn, stored under
+       the hash difference it makes (side to move included) in one of
+       two slots. when the difference between the current key and the
+       key a few plies back is found here and the squares between the
+       move's ends are empty, the side to move can go back to that
+       position. 3668 moves fit in 8192 slots
+                                                                     */
+    private static final long[] cuckooKeys = new long[8192];
+    private static final int[] cuckooMoves = new int[8192];
+
+
+    static {
+        for (int piece = W_KNIGHT; piece <= B_KING; piece++) {
+            if (typeOf(piece) == PAWN)
+                continue;
+            for (int s1 = 0; s1 < 64; s1++) {
+                for (int s2 = s1 + 1; s2 < 64; s2++) {
+                    if ((pseudoAttacks(piece, s1) & squareBB(s2)) == 0L)
+                        continue;
+
+
+                    int move = encodeMove(s1, s2, piece, NO_PIECE, 0, 0, 0, 0);
+                    long key = pieceKeys[piece][s1] ^ pieceKeys[piece][s2] ^ sideKey;
+                    int i = cuckooFirst(key);
+                    // evict whatever sits in the slot and move it to its other slot
+                    while (true) {
+                        long tempKey = cuckooKeys[i];
+                        cuckooKeys[i] = key;
+                        key = tempKey;
+                        int tempMove = cuckooMoves[i];
+                        cuckooMoves[i] = move;
+                        move = tempMove;
+                        if (move == 0)
+                            break;
+                        i = (i == cuckooFirst(key)) ? cuckooSecond(key) : cuckooFirst(key);
+                    }
+                }
+            }
+        }
+    }
+
+
+    private static int cuckooFirst(long key) {
+        return (int) (key & 0x1FFF);
+    }
+    private static int cuckooSecond(long key) {
+        return (int) ((key >>> 16) & 0x1FFF);
+    }
+
+
+    /*
+                      ! State stack !
+       one slot per move made since the last setFen, holding everything
+       undoMove needs that cannot be recomputed. the arrays start with
+       room for a game plus a search and double when a longer game
+       outgrows them, so a fresh board stays small and making a move
+       only allocates when that happens
+                                                                     */
+    private int[] stackMove;
+    private int[] stackCapturedPiece;
+    private int[] stackCapturedSquare;
+    private int[] stackEnPassant;
+    private int[] stackEnPassantTarget;
+    private int[] stackCastlingRight;
+    private int[] stackFiftyMove;
+    private int[] stackMoveCounter;
+    private long[] stackHashKey;
+    private int stackSize;
+
+
+    private final int[] kingSquares;
+    private long[] repetitionTable;
     private int repetitionIndex;
 
 
     private Side sideToMove;
-    private Square enPassant;
-    private Square enPassantTarget;
-    private final Piece[] pieces;
+    private int enPassant;
+    private int enPassantTarget;
+    // piece on every square, NO_PIECE when empty
+    private final byte[] mailbox;
     private final long[] bitboards;
     private final long[] typeBitboards;
     private final long[] occupancies;
     private long hashKey;
+    private long pawnKey;
+    private long materialKey;
     private int castlingRight;
     private int fiftyMove;
     private int moveCounter;
@@ -60,18 +138,49 @@ public class Board {
     private final int[] psqScore;
 
 
-    public Board() {
-        backups = new LinkedList<>();
-        kingSquares = new Square[2];
+    /*
+                      ! Attack maps !
+       attacksFrom[square]   squares attacked by the piece on square
+       attackersTo[square]   squares of the pieces attacking square
+
+       both are kept up to date by setPiece and removePiece, which only
+       recompute the sliders whose rays cross the changed square. the
+       per side and piece type unions are rebuilt lazily when asked for
+                                                                     */
+    private final long[] attacksFrom;
+    private final long[] attackersTo;
+    private final long[][] attackedBy;
+    private boolean attackedByValid;
+
+
+    // for each side the squares where each piece type would check the other
+    // king, and that side's pieces whose move uncovers a slider on it
+    private final long[][] checkSquares;
+    private final long[] discoveredCheckers;
+    private boolean checkInfoValid;
 
 
-        // 11797 is the max number of plies (5898 moves) in game
-        repetitionTable = new long[11797];
+    public Board() {
+        kingSquares = new int[2];
+
+
+        // the repetition table holds one key more than the stack, the position after setFen
+        repetitionTable = new long[2 * maxPly + 1];
+        stackMove = new int[2 * maxPly];
+        stackCapturedPiece = new int[2 * maxPly];
+        stackCapturedSquare = new int[2 * maxPly];
+        stackEnPassant = new int[2 * maxPly];
+        stackEnPassantTarget = new int[2 * maxPly];
+        stackCastlingRight = new int[2 * maxPly];
+        stackFiftyMove = new int[2 * maxPly];
+        stackMoveCounter = new int[2 * maxPly];
+        stackHashKey = new long[2 * maxPly];
+        stackSize = 0;
         repetitionIndex = 0;
 
 
-        pieces = new Piece[64];
-        Arrays.fill(pieces, Piece.NONE);
+        mailbox = new byte[64];
+        Arrays.fill(mailbox, (byte) NO_PIECE);
 
 
         bitboards = new long[12];
@@ -87,11 +196,13 @@ public class Board {
 
 
         sideToMove = Side.WHITE;
-        enPassant = Square.NONE;
-        enPassantTarget = Square.NONE;
+        enPassant = NO_SQUARE;
+        enPassantTarget = NO_SQUARE;
 
 
         hashKey = 0L;
+        pawnKey = noPawnsKey;
+        materialKey = 0L;
         castlingRight = 0;
         fiftyMove = 0;
         moveCounter = 0;
@@ -103,6 +214,16 @@ public class Board {
         psqScore = new int[2];
 
 
+        attacksFrom = new long[64];
+        attackersTo = new long[64];
+        // 6 = all piece types
+        attackedBy = new long[2][7];
+        attackedByValid = false;
+        checkSquares = new long[2][6];
+        discoveredCheckers = new long[2];
+        checkInfoValid = false;
+
+
         setFen("rnbqkbnr/pppppppp/8/8/8/8/PPPPPPPP/RNBQKBNR w KQkq - 0 1");
     }
 
@@ -111,10 +232,10 @@ public class Board {
         this.sideToMove = sideToMove;
     }
     public void setEnPassant(Square enPassant) {
-        this.enPassant = enPassant;
+        this.enPassant = enPassant.ordinal();
     }
     public void setEnPassantTarget(Square enPassantTarget) {
-        this.enPassantTarget = enPassantTarget;
+        this.enPassantTarget = enPassantTarget.ordinal();
     }
     public void setHashKey(long hashKey) {
         this.hashKey = hashKey;
@@ -133,23 +254,45 @@ public class Board {
     }
 
 
-    public LinkedList<Backup> backups() {
-        return backups;
+    // read only view of the moves made since the last setFen
+    public int historyLength() {
+        return stackSize;
+    }
+    public int moveAt(int index) {
+        return stackMove[index];
+    }
+    public Piece capturedPieceAt(int index) {
+        return allPieces[stackCapturedPiece[index]];
+    }
+    public Piece lastCapturedPiece() {
+        return stackSize == 0 ? Piece.NONE : capturedPieceAt(stackSize - 1);
+    }
+    public int lastCapturedPieceIndex() {
+        return stackSize == 0 ? NO_PIECE : stackCapturedPiece[stackSize - 1];
     }
     public Piece pieceAt(Square square) {
-        return pieces[square.ordinal()];
+        return allPieces[mailbox[square.ordinal()]];
+    }
+    public int pieceOn(int square) {
+        return mailbox[square];
     }
     public Side sideToMove() {
         return sideToMove;
     }
+    public int sideToMoveIndex() {
+        return sideToMove.ordinal();
+    }
     public Square enPassant() {
-        return enPassant;
+        return squareAt(enPassant);
     }
     public Square enPassantTarget() {
-        return enPassantTarget;
+        return squareAt(enPassantTarget);
+    }
+    public int enPassantIndex() {
+        return enPassant;
     }
-    public Piece[] pieces() {
-        return pieces;
+    public int enPassantTargetIndex() {
+        return enPassantTarget;
     }
     public long[] bitboards() {
         return bitboards;
@@ -166,6 +309,12 @@ public class Board {
     public long hashKey() {
         return hashKey;
     }
+    public long pawnKey() {
+        return pawnKey;
+    }
+    public long materialKey() {
+        return materialKey;
+    }
     public int fiftyMove() {
         return fiftyMove;
     }
@@ -183,24 +332,26 @@ public class Board {
 
 
     public void resetBoard() {
-        backups.clear();
-        Arrays.fill(kingSquares, Square.NONE);
+        stackSize = 0;
+        Arrays.fill(kingSquares, NO_SQUARE);
         Arrays.fill(repetitionTable, 0L);
         repetitionIndex = 0;
 
 
-        Arrays.fill(pieces, Piece.NONE);
+        Arrays.fill(mailbox, (byte) NO_PIECE);
         Arrays.fill(bitboards, 0L);
         Arrays.fill(typeBitboards, 0L);
         Arrays.fill(occupancies, 0L);
 
 
         sideToMove = Side.WHITE;
-        enPassant = Square.NONE;
-        enPassantTarget = Square.NONE;
+        enPassant = NO_SQUARE;
+        enPassantTarget = NO_SQUARE;
 
 
         hashKey = 0L;
+        pawnKey = noPawnsKey;
+        materialKey = 0L;
         castlingRight = 0;
         fiftyMove = 0;
         moveCounter = 0;
@@ -210,6 +361,12 @@ public class Board {
         Arrays.fill(pieceCount, 0);
         Arrays.fill(nonPawnMaterial, 0);
         Arrays.fill(psqScore, 0);
+
+
+        Arrays.fill(attacksFrom, 0L);
+        Arrays.fill(attackersTo, 0L);
+        attackedByValid = false;
+        checkInfoValid = false;
     }
 
 
@@ -236,10 +393,6 @@ public class Board {
                     Piece piece = encodePiece(c + "");
 
 
-                    if (piece.pieceType().equals(PieceType.KING))
-                        kingSquares[piece.pieceSide().ordinal()] = square;
-
-
                     setPiece(piece, square);
                     file++;
                 }
@@ -270,10 +423,10 @@ public class Board {
             Square square = encodeSquare(R, F);
 
 
-            enPassant = square;
+            enPassant = square.ordinal();
             enPassantTarget = sideToMove.equals(Side.WHITE)
-                            ? squareAt(square.ordinal() + 8)
-                            : squareAt(square.ordinal() - 8);
+                            ? square.ordinal() + 8
+                            : square.ordinal() - 8;
         }
 
 
@@ -295,7 +448,7 @@ public class Board {
             int empty = 0;
             for (int file = 0; file < 8; file++) {
                 int index = rank * 8 + file;
-                Piece piece = pieces[index];
+                Piece piece = allPieces[mailbox[index]];
 
 
                 if (piece.equals(Piece.NONE))
@@ -340,10 +493,10 @@ public class Board {
         builder.append(' ');
 
 
-        if (enPassant == Square.NONE)
+        if (enPassant == NO_SQUARE)
             builder.append('-');
         else
-            builder.append(enPassant.toString().toLowerCase());
+            builder.append(squareAt(enPassant).toString().toLowerCase());
         builder.append(' ');
 
 
@@ -357,22 +510,22 @@ public class Board {
 
 
     public long sliderBlockers(Square square, long sliders) {
-        long queens = bitboard(Piece.WHITE_QUEEN) | bitboard(Piece.BLACK_QUEEN);
-        long rooks = bitboard(Piece.WHITE_ROOK) | bitboard(Piece.BLACK_ROOK);
-        long bishops = bitboard(Piece.WHITE_BISHOP) | bitboard(Piece.BLACK_BISHOP);
-        long snipers = ((rookAttacks(square, 0L) & (queens | rooks)) |
-                        (bishopAttacks(square, 0L) & (queens | bishops))) & sliders;
+        return sliderBlockers(square.ordinal(), sliders);
+    }
+    public long sliderBlockers(int square, long sliders) {
+        long snipers = ((rookAttacks(square, 0L) & typeBitboard(ROOK, QUEEN)) |
+                        (bishopAttacks(square, 0L) & typeBitboard(BISHOP, QUEEN))) & sliders;
         long occupancy = bitboard() & ~snipers & ~squareBB(square);
         long blockers = 0L;
 
 
         while (snipers != 0L) {
-            Square sniperSquare = squareAt(lsb(snipers));
+            int sniperSquare = lsb(snipers);
             snipers = extractLsb(snipers);
 
 
-            long bb = lineBB[square.ordinal()][sniperSquare.ordinal()]
-                    & bitsBetween(occupancy, square.ordinal(), sniperSquare.ordinal());
+            long bb = lineBB[square][sniperSquare]
+                    & bitsBetween(occupancy, square, sniperSquare);
             if (bb != 0L && !moreThanOne(bb))
                 blockers |= bb;
         }
@@ -382,6 +535,27 @@ public class Board {
     }
 
 
+    // pieces of either side standing alone between square and one of sliders
+    public long lineBlockers(int square, long sliders) {
+        long snipers = ((rookAttacks(square, 0L) & typeBitboard(ROOK, QUEEN)) |
+                        (bishopAttacks(square, 0L) & typeBitboard(BISHOP, QUEEN))) & sliders;
+        final long occupancy = bitboard();
+        long blockers = 0L;
+
+
+        while (snipers != 0L) {
+            int sniper = lsb(snipers);
+            snipers = extractLsb(snipers);
+
+
+            long bb = betweenSquares[square][sniper] & occupancy;
+            if (bb != 0L && !moreThanOne(bb))
+                blockers |= bb;
+        }
+        return blockers;
+    }
+
+
     public boolean isPinned(Side them, Square square) {
         return (sliderBlockers(kingSquare(them.flip()), bitboard(them)) & squareBB(square)) != 0L;
     }
@@ -393,12 +567,15 @@ public class Board {
 
 
     public long attackersToSquare(Square square, long occupancy) {
-        long result = (pawnAttacks[0][square.ordinal()] & bitboard(BLACK_PAWN) |
-                    pawnAttacks[1][square.ordinal()] & bitboard(WHITE_PAWN)) & occupancy;
-        result |= knightAttacks[square.ordinal()] & bitboard(PieceType.KNIGHT) & occupancy;
-        result |= bishopAttacks(square, occupancy) & bitboard(PieceType.BISHOP, PieceType.QUEEN) & occupancy;
-        result |= rookAttacks(square, occupancy) & bitboard(PieceType.ROOK, PieceType.QUEEN) & occupancy;
-        result |= kingAttacks[square.ordinal()] & bitboard(PieceType.KING) & occupancy;
+        return attackersToSquare(square.ordinal(), occupancy);
+    }
+    public long attackersToSquare(int square, long occupancy) {
+        long result = (pawnAttacks[0][square] & bitboards[B_PAWN] |
+                    pawnAttacks[1][square] & bitboards[W_PAWN]) & occupancy;
+        result |= knightAttacks[square] & typeBitboards[KNIGHT] & occupancy;
+        result |= bishopAttacks(square, occupancy) & typeBitboard(BISHOP, QUEEN) & occupancy;
+        result |= rookAttacks(square, occupancy) & typeBitboard(ROOK, QUEEN) & occupancy;
+        result |= kingAttacks[square] & typeBitboards[KING] & occupancy;
         return result;
     }
 
@@ -409,45 +586,43 @@ public class Board {
 
 
     public long attackersXrayToSquare(Square square, long occupancy) {
-        long result = (pawnAttacks[0][square.ordinal()] & bitboard(BLACK_PAWN) |
-                    pawnAttacks[1][square.ordinal()] & bitboard(WHITE_PAWN)) & occupancy;
-        result |= knightAttacks[square.ordinal()] & bitboard(PieceType.KNIGHT) & occupancy;
-        result |= bishopAttacks(square, occupancy & ~bitboard(PieceType.BISHOP, PieceType.QUEEN))
-                & bitboard(PieceType.BISHOP, PieceType.QUEEN) & occupancy;
-        result |= rookAttacks(square, occupancy & ~bitboard(PieceType.ROOK, PieceType.QUEEN))
-                & bitboard(PieceType.ROOK, PieceType.QUEEN) & occupancy;
-        result |= kingAttacks[square.ordinal()] & bitboard(PieceType.KING) & occupancy;
+        return attackersXrayToSquare(square.ordinal(), occupancy);
+    }
+    public long attackersXrayToSquare(int square, long occupancy) {
+        final long diagonals = typeBitboard(BISHOP, QUEEN);
+        final long orthogonals = typeBitboard(ROOK, QUEEN);
+        long result = (pawnAttacks[0][square] & bitboards[B_PAWN] |
+                    pawnAttacks[1][square] & bitboards[W_PAWN]) & occupancy;
+        result |= knightAttacks[square] & typeBitboards[KNIGHT] & occupancy;
+        result |= bishopAttacks(square, occupancy & ~diagonals) & diagonals & occupancy;
+        result |= rookAttacks(square, occupancy & ~orthogonals) & orthogonals & occupancy;
+        result |= kingAttacks[square] & typeBitboards[KING] & occupancy;
         return result;
     }
 
 
     public boolean isSquareAttackedBy(Side them, Square square) {
-        Side us = them.flip();
-        if ((pawnAttacks[us.ordinal()][square.ordinal()] & bitboard(encodePiece(them, PieceType.PAWN))) != 0L)
-            return true;
-        if ((knightAttacks[square.ordinal()] & bitboard(encodePiece(them, PieceType.KNIGHT))) != 0L)
-            return true;
-        if ((bishopAttacks(square, bitboard()) & (bitboard(encodePiece(them, PieceType.BISHOP)) |
-                                                  bitboard(encodePiece(them, PieceType.QUEEN)))) != 0L)
-            return true;
-        if ((rookAttacks(square, bitboard()) & (bitboard(encodePiece(them, PieceType.ROOK)) |
-                                                bitboard(encodePiece(them, PieceType.QUEEN)))) != 0L)
-            return true;
-        return (kingAttacks[square.ordinal()] & bitboard(encodePiece(them, PieceType.KING))) != 0L;
+        return isSquareAttackedBy(them.ordinal(), square.ordinal());
+    }
+    public boolean isSquareAttackedBy(int them, int square) {
+        return (attackersTo[square] & occupancies[them]) != 0L;
     }
 
 
     public boolean isSquareAttackedBy(Square square, long occupancy) {
-        if (((pawnAttacks[0][square.ordinal()] & bitboard(BLACK_PAWN) & occupancy) |
-                (pawnAttacks[1][square.ordinal()] & bitboard(WHITE_PAWN) & occupancy)) != 0L)
+        return isSquareAttackedBy(square.ordinal(), occupancy);
+    }
+    public boolean isSquareAttackedBy(int square, long occupancy) {
+        if (((pawnAttacks[0][square] & bitboards[B_PAWN] & occupancy) |
+                (pawnAttacks[1][square] & bitboards[W_PAWN] & occupancy)) != 0L)
             return true;
-        if ((knightAttacks[square.ordinal()] & bitboard(PieceType.KNIGHT) & occupancy) != 0L)
+        if ((knightAttacks[square] & typeBitboards[KNIGHT] & occupancy) != 0L)
             return true;
-        if ((bishopAttacks(square, occupancy) & bitboard(PieceType.BISHOP, PieceType.QUEEN) & occupancy) != 0L)
+        if ((bishopAttacks(square, occupancy) & typeBitboard(BISHOP, QUEEN) & occupancy) != 0L)
             return true;
-        if ((rookAttacks(square, occupancy) & bitboard(PieceType.ROOK, PieceType.QUEEN) & occupancy) != 0L)
+        if ((rookAttacks(square, occupancy) & typeBitboard(ROOK, QUEEN) & occupancy) != 0L)
             return true;
-        return (kingAttacks[square.ordinal()] & bitboard(PieceType.KING) & occupancy) != 0L;
+        return (kingAttacks[square] & typeBitboards[KING] & occupancy) != 0L;
     }
 
 
@@ -465,8 +640,8 @@ public class Board {
         }
 
 
-        if (!enPassant.equals(Square.NONE))
-            key ^= enPassantKeys[enPassant.ordinal()];
+        if (enPassant != NO_SQUARE)
+            key ^= enPassantKeys[enPassant];
 
 
         key ^= castlingKeys[castlingRight];
@@ -514,8 +689,10 @@ public class Board {
     }
     public boolean isRepetition(int count) {
         if (repetitionIndex >= 3) {
+            // nothing before the last capture or pawn move can come back
+            final int end = Math.max(0, repetitionIndex - 1 - fiftyMove);
             int repetitions = 0;
-            for (int i = repetitionIndex - 1; i >= 0; i -= 4) {
+            for (int i = repetitionIndex - 1; i >= end; i -= 4) {
                 final long hashKey = repetitionTable[i];
                 if (this.hashKey == hashKey && ++repetitions >= count)
                     return true;
@@ -525,31 +702,63 @@ public class Board {
     }
 
 
-    public boolean isStaleMate() {
-        if (!isKingAttacked())
-            return legalMoves().stream().noneMatch(move -> {
-                boolean valid = doMove(move);
-                if (valid) {
-                    undoMove();
+    // whether the side to move has a move back to a position from the current
+    // fifty move window. ply is the distance from the search root, cycles that
+    // reach before the root only count when that position has already repeated
+    public boolean hasUpcomingRepetition(int ply) {
+        int end = Math.min(fiftyMove, repetitionIndex - 1);
+        // keys restored from a snapshot have no stack slot and no null moves
+        for (int i = 1; i <= Math.min(end, stackSize); i++) {
+            // a null move is not a move that can be taken back
+            if (stackMove[stackSize - i] == 0) {
+                end = i - 1;
+                break;
+            }
+        }
+        if (end < 3)
+            return false;
+
+
+        final long occupancy = bitboard();
+        for (int i = 3; i <= end; i += 2) {
+            final int index = repetitionIndex - 1 - i;
+            final long moveKey = hashKey ^ repetitionTable[index];
+            int j = cuckooFirst(moveKey);
+            if (cuckooKeys[j] != moveKey) {
+                j = cuckooSecond(moveKey);
+                if (cuckooKeys[j] != moveKey)
+                    continue;
+            }
+
+
+            final int s1 = fromIndex(cuckooMoves[j]);
+            final int s2 = toIndex(cuckooMoves[j]);
+            if ((betweenSquares[s1][s2] & occupancy) != 0L)
+                continue;
+            if (ply > i)
+                return true;
+
+
+            // both directions share a slot, the piece must be ours to move back
+            final int piece = mailbox[mailbox[s1] == NO_PIECE ? s2 : s1];
+            if (sideOf(piece) != sideToMove.ordinal())
+                continue;
+            for (int k = index - 4; k >= repetitionIndex - 1 - end; k -= 2) {
+                if (repetitionTable[k] == repetitionTable[index])
                     return true;
-                }
-                return false;
-            });
+            }
+        }
         return false;
     }
 
 
+    public boolean isStaleMate() {
+        return !isKingAttacked() && !hasLegalMove();
+    }
+
+
     public boolean isMated() {
-        if (isKingAttacked())
-            return legalMoves().stream().noneMatch(move -> {
-                boolean valid = doMove(move);
-                if (valid) {
-                    undoMove();
-                    return true;
-                }
-                return false;
-            });
-        return false;
+        return isKingAttacked() && !hasLegalMove();
     }
 
 
@@ -567,124 +776,291 @@ public class Board {
 
 
     public boolean isGameOver() {
-        if (isDraw(true))
-            return true;
-        return isMated();
+        // stalemate or mate, whichever applies
+        return isDraw(false) || !hasLegalMove();
     }
 
 
-    public int see(int move) {
-        long fromBB = squareBB(from(move));
-        long occupancy = bitboard();
-        long attackers = attackersToSquare(to(move), occupancy);
-        long fromCandidates = 0L;
-
-
-        int[] seeGain = new int[32];
-        int d = 0;
+    // whether the exchange started by move wins at least threshold. the gain is
+    // kept relative to the threshold, so the swap list needs no array and the
+    // loop stops as soon as the side to recapture cannot change the outcome
+    public boolean seeGE(int move, int threshold) {
+        final int from = fromIndex(move);
+        final int to = toIndex(move);
+        int movingPiece = pieceIndex(move);
+        int capturedPiece = mailbox[to];
+        if (capturedPiece == NO_PIECE && to == enPassant && typeOf(movingPiece) == PAWN)
+            capturedPiece = mailbox[enPassantTarget];
 
 
-        Piece movingPiece = movingPiece(move);
-        Piece capturedPiece = pieceAt(to(move));
-        if (capturedPiece.equals(Piece.NONE) && to(move).equals(enPassant) && movingPiece.pieceType().equals(PieceType.PAWN))
-            capturedPiece = pieceAt(enPassantTarget);
+        int swap = (capturedPiece == NO_PIECE ? 0 : mgValue(pieceScores[typeOf(capturedPiece)])) - threshold;
+        if (swap < 0)
+            return false;
+        swap = mgValue(pieceScores[typeOf(movingPiece)]) - swap;
+        if (swap <= 0)
+            return true;
 
 
-        seeGain[d] = capturedPiece.equals(Piece.NONE) ? 0 : mgValue(pieceScores[capturedPiece.pieceType().ordinal()]);
-        do {
-            d++;
-            Side us = (d & 1) == 0 ? sideToMove : sideToMove.flip();
-            seeGain[d] = mgValue(pieceScores[movingPiece.pieceType().ordinal()]) - seeGain[d - 1];
+        long fromBB = squareBB(from);
+        long occupancy = bitboard();
+        long attackers = attackersTo[to];
+        int us = sideToMove.ordinal();
+        int result = 1;
 
 
+        while (true) {
             occupancy &= ~fromBB;
             attackers &= ~fromBB;
-            if ((fromBB & (bitboard(PieceType.PAWN,
-                                    PieceType.KNIGHT,
-                                    PieceType.BISHOP,
-                                    PieceType.ROOK,
-                                    PieceType.QUEEN))) != 0L)
-                attackers |= attackersXrayToSquare(to(move), occupancy);
-
-
-            if ((fromCandidates = attackers & bitboard(encodePiece(us, PieceType.PAWN))) != 0L)
-                movingPiece = encodePiece(us, PieceType.PAWN);
-            else if ((fromCandidates = attackers & bitboard(encodePiece(us, PieceType.KNIGHT))) != 0L)
-                movingPiece = encodePiece(us, PieceType.KNIGHT);
-            else if ((fromCandidates = attackers & bitboard(encodePiece(us, PieceType.BISHOP))) != 0L)
-                movingPiece = encodePiece(us, PieceType.BISHOP);
-            else if ((fromCandidates = attackers & bitboard(encodePiece(us, PieceType.ROOK))) != 0L)
-                movingPiece = encodePiece(us, PieceType.ROOK);
-            else if ((fromCandidates = attackers & bitboard(encodePiece(us, PieceType.QUEEN))) != 0L)
-                movingPiece = encodePiece(us, PieceType.QUEEN);
-            else if ((fromCandidates = attackers & bitboard(encodePiece(us, PieceType.KING))) != 0L)
-                movingPiece = encodePiece(us, PieceType.KING);
-            fromBB = squareBB(lsb(fromCandidates));
-        } while (fromCandidates != 0L);
+            if ((fromBB & ~typeBitboards[KING]) != 0L)
+                attackers |= attackersXrayToSquare(to, occupancy);
 
 
-        while (--d != 0)
-            seeGain[d - 1] = -Math.max(-seeGain[d - 1], seeGain[d]);
+            us ^= 1;
+            long fromCandidates = 0L;
+            for (int type = PAWN; type <= KING; type++) {
+                if ((fromCandidates = attackers & bitboards[makePiece(us, type)]) != 0L) {
+                    movingPiece = makePiece(us, type);
+                    break;
+                }
+            }
+            if (fromCandidates == 0L)
+                break;
 
 
-        return seeGain[0];
+            result ^= 1;
+            if ((swap = mgValue(pieceScores[typeOf(movingPiece)]) - swap) < result)
+                break;
+            fromBB = squareBB(lsb(fromCandidates));
+        }
+
+
+        return result != 0;
     }
 
 
     public void setPiece(Piece piece, Square square) {
-        bitboards[piece.ordinal()] |= square.bitboard();
-        typeBitboards[piece.pieceType().ordinal()] |= square.bitboard();
-        occupancies[piece.pieceSide().ordinal()] |= square.bitboard();
-        pieces[square.ordinal()] = piece;
+        setPiece(piece.ordinal(), square.ordinal());
+    }
+    public void setPiece(int piece, int square) {
+        final int type = typeOf(piece);
+        final int side = sideOf(piece);
+        final long bb = squareBB(square);
+        bitboards[piece] |= bb;
+        typeBitboards[type] |= bb;
+        occupancies[side] |= bb;
+        mailbox[square] = (byte) piece;
+        updateSliders(square);
+        setAttacks(square, pieceAttacks(piece, square));
 
 
         int psqScore = 0;
-        if (!piece.pieceType().equals(PieceType.KING)) {
-            if (!piece.pieceType().equals(PieceType.PAWN))
-                nonPawnMaterial[piece.pieceSide().ordinal()] += mgValue(pieceScores[piece.pieceType().ordinal()]);
-            psqScore += pieceScores[piece.pieceType().ordinal()];
+        if (type != KING) {
+            if (type != PAWN)
+                nonPawnMaterial[side] += mgValue(pieceScores[type]);
+            psqScore += pieceScores[type];
         }
 
 
-        int pstIndex = relativeSquare(piece.pieceSide(), square).ordinal();
-        psqScore += pstBonus[piece.pieceType().ordinal()][pstIndex];
-        this.psqScore[piece.pieceSide().ordinal()] += (piece.pieceSide().equals(Side.WHITE) ? psqScore : -psqScore);
+        psqScore += pstBonus[type][relativeSquare(side, square)];
+        this.psqScore[side] += (side == WHITE ? psqScore : -psqScore);
 
 
-        pieceCount[piece.ordinal()]++;
-        if (!piece.equals(Piece.NONE) && !square.equals(Square.NONE))
-            hashKey ^= pieceKeys[piece.ordinal()][square.ordinal()];
-        if (piece.pieceType().equals(PieceType.KING))
-            kingSquares[piece.pieceSide().ordinal()] = square;
+        // the material key hashes piece counts rather than squares
+        materialKey ^= pieceKeys[piece][pieceCount[piece]++];
+        hashKey ^= pieceKeys[piece][square];
+        if (type == PAWN)
+            pawnKey ^= pieceKeys[piece][square];
+        if (type == KING)
+            kingSquares[side] = square;
     }
 
 
     public void removePiece(Piece piece, Square square) {
-        assert piece == pieceAt(square);
-        bitboards[piece.ordinal()] &= ~square.bitboard();
-        typeBitboards[piece.pieceType().ordinal()] &= ~square.bitboard();
-        occupancies[piece.pieceSide().ordinal()] &= ~square.bitboard();
-        pieces[square.ordinal()] = Piece.NONE;
+        removePiece(piece.ordinal(), square.ordinal());
+    }
+    public void removePiece(int piece, int square) {
+        assert piece == mailbox[square];
+        final int type = typeOf(piece);
+        final int side = sideOf(piece);
+        final long bb = squareBB(square);
+        bitboards[piece] &= ~bb;
+        typeBitboards[type] &= ~bb;
+        occupancies[side] &= ~bb;
+        mailbox[square] = (byte) NO_PIECE;
+        setAttacks(square, 0L);
+        updateSliders(square);
 
 
         int psqScore = 0;
-        if (!piece.pieceType().equals(PieceType.KING)) {
-            if (!piece.pieceType().equals(PieceType.PAWN))
-                nonPawnMaterial[piece.pieceSide().ordinal()] -= mgValue(pieceScores[piece.pieceType().ordinal()]);
-            psqScore += pieceScores[piece.pieceType().ordinal()];
+        if (type != KING) {
+            if (type != PAWN)
+                nonPawnMaterial[side] -= mgValue(pieceScores[type]);
+            psqScore += pieceScores[type];
+        }
+
+
+        psqScore += pstBonus[type][relativeSquare(side, square)];
+        this.psqScore[side] -= (side == WHITE ? psqScore : -psqScore);
+
+
+        materialKey ^= pieceKeys[piece][--pieceCount[piece]];
+        hashKey ^= pieceKeys[piece][square];
+        if (type == PAWN)
+            pawnKey ^= pieceKeys[piece][square];
+        if (type == KING)
+            kingSquares[side] = NO_SQUARE;
+    }
+
+
+    private long pieceAttacks(int piece, int square) {
+        return switch (typeOf(piece)) {
+            case BISHOP -> bishopAttacks(square, bitboard());
+            case ROOK -> rookAttacks(square, bitboard());
+            case QUEEN -> queenAttacks(square, bitboard());
+            default -> pseudoAttacks(piece, square);
+        };
+    }
+
+
+    private void setAttacks(int square, long attacks) {
+        long changed = attacksFrom[square] ^ attacks;
+        attacksFrom[square] = attacks;
+        attackedByValid = false;
+        checkInfoValid = false;
+
+
+        while (changed != 0L) {
+            attackersTo[lsb(changed)] ^= squareBB(square);
+            changed = extractLsb(changed);
+        }
+    }
+
+
+    private void updateSliders(int square) {
+        // only the rays of sliders attacking the square pass through it
+        long sliders = attackersTo[square] & (typeBitboards[BISHOP] | typeBitboards[ROOK] | typeBitboards[QUEEN]);
+        while (sliders != 0L) {
+            int slider = lsb(sliders);
+            sliders = extractLsb(sliders);
+            setAttacks(slider, pieceAttacks(mailbox[slider], slider));
+        }
+    }
+
+
+    private void updateAttackedBy() {
+        for (long[] attacks : attackedBy)
+            Arrays.fill(attacks, 0L);
+
+
+        long occupancy = bitboard();
+        while (occupancy != 0L) {
+            int index = lsb(occupancy);
+            occupancy = extractLsb(occupancy);
+
+
+            int piece = mailbox[index];
+            attackedBy[sideOf(piece)][typeOf(piece)] |= attacksFrom[index];
+            attackedBy[sideOf(piece)][6] |= attacksFrom[index];
+        }
+        attackedByValid = true;
+    }
+
+
+    private void updateCheckInfo() {
+        final long occupancy = bitboard();
+        for (int us = WHITE; us <= BLACK; us++) {
+            final int ksq = kingSquares[us ^ 1];
+            final long bishop = bishopAttacks(ksq, occupancy);
+            final long rook = rookAttacks(ksq, occupancy);
+
+
+            checkSquares[us][PAWN] = pawnAttacks[us ^ 1][ksq];
+            checkSquares[us][KNIGHT] = knightAttacks[ksq];
+            checkSquares[us][BISHOP] = bishop;
+            checkSquares[us][ROOK] = rook;
+            checkSquares[us][QUEEN] = bishop | rook;
+            checkSquares[us][KING] = 0L;
+            discoveredCheckers[us] = lineBlockers(ksq, occupancies[us]) & occupancies[us];
         }
+        checkInfoValid = true;
+    }
+
+
+    // whether move checks the other king, decided before it is made
+    public boolean givesCheck(int move) {
+        if (!checkInfoValid)
+            updateCheckInfo();
+
+
+        final int us = sideToMove.ordinal();
+        final int from = fromIndex(move);
+        final int to = toIndex(move);
+        final int ksq = kingSquares[us ^ 1];
 
 
-        int pstIndex = relativeSquare(piece.pieceSide(), square).ordinal();
-        psqScore += pstBonus[piece.pieceType().ordinal()][pstIndex];
-        this.psqScore[piece.pieceSide().ordinal()] -= (piece.pieceSide().equals(Side.WHITE) ? psqScore : -psqScore);
+        if ((checkSquares[us][typeOf(pieceIndex(move))] & squareBB(to)) != 0L)
+            return true;
+        if ((discoveredCheckers[us] & squareBB(from)) != 0L && (lineBB[ksq][from] & squareBB(to)) == 0L)
+            return true;
+
+
+        final int promotion = promotionIndex(move);
+        if (promotion != NO_PIECE) {
+            final long occupancy = bitboard() ^ squareBB(from);
+            final long attacks = switch (typeOf(promotion)) {
+                case KNIGHT -> knightAttacks[to];
+                case BISHOP -> bishopAttacks(to, occupancy);
+                case ROOK -> rookAttacks(to, occupancy);
+                default -> queenAttacks(to, occupancy);
+            };
+            return (attacks & squareBB(ksq)) != 0L;
+        }
+
+
+        if (isEnPassant(move)) {
+            // the captured pawn can uncover a slider as well
+            final long occupancy = (bitboard() ^ squareBB(from) ^ squareBB(enPassantTarget)) | squareBB(to);
+            return (bishopAttacks(ksq, occupancy) & (pieceBitboard(us, BISHOP) | pieceBitboard(us, QUEEN))) != 0L
+                || (rookAttacks(ksq, occupancy) & (pieceBitboard(us, ROOK) | pieceBitboard(us, QUEEN))) != 0L;
+        }
 
 
-        pieceCount[piece.ordinal()]--;
-        if (!piece.equals(Piece.NONE) && !square.equals(Square.NONE))
-            hashKey ^= pieceKeys[piece.ordinal()][square.ordinal()];
-        if (piece.pieceType().equals(PieceType.KING))
-            kingSquares[piece.pieceSide().ordinal()] = Square.NONE;
+        if (isCastling(move)) {
+            final int rookTo = castlingRookTo[to];
+            final long occupancy = (bitboard() ^ squareBB(from) ^ squareBB(castlingRookFrom[to])) | squareBB(to) | squareBB(rookTo);
+            return (rookAttacks(rookTo, occupancy) & squareBB(ksq)) != 0L;
+        }
+        return false;
+    }
+
+
+    public long attacksFrom(Square square) {
+        return attacksFrom[square.ordinal()];
+    }
+    public long attacksFrom(int square) {
+        return attacksFrom[square];
+    }
+    public long attackersTo(Square square) {
+        return attackersTo[square.ordinal()];
+    }
+    public long attackersTo(int square) {
+        return attackersTo[square];
+    }
+    public long attacks(Side side) {
+        return attacks(side.ordinal());
+    }
+    public long attacks(int side) {
+        if (!attackedByValid)
+            updateAttackedBy();
+        return attackedBy[side][6];
+    }
+    public long attacks(Side side, PieceType pt) {
+        return attacks(side.ordinal(), pt.ordinal());
+    }
+    public long attacks(int side, int type) {
+        if (!attackedByValid)
+            updateAttackedBy();
+        return attackedBy[side][type];
     }
 
 
@@ -700,170 +1076,198 @@ public class Board {
     };
 
 
-    public boolean isLegal(int move) {
-        Side us = sideToMove;
-        Side them = us.flip();
-        final Square from = from(move);
-        final Square to = to(move);
-        final Piece movingPiece = movingPiece(move);
-        final Piece promotion = promotion(move);
-        final boolean isCapture = isCapture(move);
-        final boolean isPush = isPush(move);
-        final boolean isEnPassant = isEnPassant(move);
-        final boolean isCastling = isCastling(move);
+    // rook squares of a castling move, indexed by the king target square
+    private static final int[] castlingRookFrom = new int[64];
+    private static final int[] castlingRookTo = new int[64];
 
 
-        if (from.equals(Square.NONE))
-            return false;
-        if (to.equals(Square.NONE))
-            return false;
-        if (pieceAt(from).equals(Piece.NONE))
-            return false;
-        if (movingPiece.equals(Piece.NONE))
-            return false;
-        if (isEnPassant && !movingPiece.pieceType().equals(PieceType.PAWN))
+    static {
+        castlingRookFrom[G1.ordinal()] = H1.ordinal();
+        castlingRookTo[G1.ordinal()] = F1.ordinal();
+        castlingRookFrom[C1.ordinal()] = A1.ordinal();
+        castlingRookTo[C1.ordinal()] = D1.ordinal();
+        castlingRookFrom[G8.ordinal()] = H8.ordinal();
+        castlingRookTo[G8.ordinal()] = F8.ordinal();
+        castlingRookFrom[C8.ordinal()] = A8.ordinal();
+        castlingRookTo[C8.ordinal()] = D8.ordinal();
+    }
+
+
+    // true when move is exactly what the generator would produce here, ignoring
+    // whether it leaves the king in check. used for hash, killer and counter moves
+    public boolean isPseudoLegal(int move) {
+        final int us = sideToMove.ordinal();
+        final int from = fromIndex(move);
+        final int to = toIndex(move);
+        final int piece = pieceIndex(move);
+        final int promotion = promotionIndex(move);
+
+
+        if (from >= 64 || to >= 64 || piece >= NO_PIECE || mailbox[from] != piece || sideOf(piece) != us)
             return false;
-        if (isEnPassant && !to.equals(enPassant))
+        final int captured = mailbox[to];
+        if (captured != NO_PIECE && sideOf(captured) == us)
             return false;
-        if (isCapture) {
-            if (isEnPassant && pieceAt(enPassantTarget).equals(Piece.NONE))
-                return false;
-            if (!isEnPassant && pieceAt(to).equals(Piece.NONE))
+
+
+        if (isCastling(move)) {
+            if (from != relativeSquare(us, E1.ordinal()) || isSquareAttackedBy(us ^ 1, from))
                 return false;
-        }
-        if (!promotion.equals(Piece.NONE)) {
-            Rank relativePromoRank = relativeRank(us, RANK_8);
-            if (!to.rank().equals(relativePromoRank))
+            if (to == from + 2) {
+                if (!hasKingCastlingRight(us) || (bitboard() & (squareBB(from + 1) | squareBB(from + 2))) != 0L
+                        || isSquareAttackedBy(us ^ 1, from + 1) || isSquareAttackedBy(us ^ 1, from + 2))
+                    return false;
+            } else if (to == from - 2) {
+                if (!hasQueenCastlingRight(us) || (bitboard() & (squareBB(from - 1) | squareBB(from - 2) | squareBB(from - 3))) != 0L
+                        || isSquareAttackedBy(us ^ 1, from - 1) || isSquareAttackedBy(us ^ 1, from - 2))
+                    return false;
+            } else
                 return false;
+            return move == encodeMove(from, to, piece, NO_PIECE, 0, 0, 0, 1);
         }
-        if (isPush && from.rank().distance(to.rank()) != 2 && !movingPiece.pieceType().equals(PieceType.PAWN))
-            return false;
-        if (isCastling) {
-            if (!hasCastlingRight(us))
-                return false;
 
 
-            Square ooTarget = relativeSquare(us, G1);
-            Square oooTarget = relativeSquare(us, C1);
+        if (typeOf(piece) == PAWN) {
+            final int push = pawnPush(us);
+            final boolean attacks = (pawnAttacks[us][from] & squareBB(to)) != 0L;
+            if (isEnPassant(move))
+                return to == enPassant && attacks && move == encodeMove(from, to, piece, NO_PIECE, 1, 0, 1, 0);
 
 
-            if (to.equals(ooTarget) && !hasKingCastlingRight(us))
+            if ((relativeRank(us, to) == 7) != (promotion != NO_PIECE))
                 return false;
-            if (to.equals(oooTarget) && !hasQueenCastlingRight(us))
+            if (promotion != NO_PIECE && (promotion >= NO_PIECE || sideOf(promotion) != us
+                    || typeOf(promotion) == PAWN || typeOf(promotion) == KING))
                 return false;
+
+
+            if (captured != NO_PIECE)
+                return attacks && move == encodeMove(from, to, piece, promotion, 1, 0, 0, 0);
+            if (to == from + push)
+                return move == encodeMove(from, to, piece, promotion, 0, 0, 0, 0);
+            return to == from + 2 * push && relativeRank(us, from) == 1 && mailbox[from + push] == NO_PIECE
+                    && move == encodeMove(from, to, piece, NO_PIECE, 0, 1, 0, 0);
         }
-        return !isPinned(them, from);
+
+
+        return (pieceAttacks(piece, from) & squareBB(to)) != 0L
+                && move == encodeMove(from, to, piece, NO_PIECE, _int(captured != NO_PIECE), 0, 0, 0);
     }
 
 
-    public boolean doMove(String move) {
-        int bit = fromString(this, move);
-        return doMove(bit);
+    // whether a pseudo legal move keeps our king out of check
+    public boolean isLegal(int move) {
+        if (isCastling(move))
+            return true;
+
+
+        final int us = sideToMove.ordinal();
+        final int from = fromIndex(move);
+        final int to = toIndex(move);
+        long captured = squareBB(to);
+        long occupancy = (bitboard() ^ squareBB(from)) | squareBB(to);
+        if (isEnPassant(move)) {
+            captured |= squareBB(enPassantTarget);
+            occupancy ^= squareBB(enPassantTarget);
+        }
+
+
+        final int ksq = typeOf(pieceIndex(move)) == KING ? to : kingSquares[us];
+        return (attackersToSquare(ksq, occupancy) & sideBitboard(us ^ 1) & ~captured) == 0L;
     }
 
 
-    public boolean doMove(int move) {
-//        if (!isLegal(move))
-//            return false;
+    // a move from outside the search, from a gui or the book, is only played when legal here
+    public boolean doMove(String move) {
+        final int bits = fromString(this, move);
+        if (bits == 0 || !isPseudoLegal(bits) || !isLegal(bits))
+            return false;
+        doMove(bits);
+        return true;
+    }
 
 
-        final Square from = from(move);
-        final Square to = to(move);
-        final Piece movingPiece = movingPiece(move);
-        final Piece promotion = promotion(move);
+    // moves come from the legal generator, so nothing is checked here
+    public void doMove(int move) {
+        final int us = sideToMove.ordinal();
+        final int from = fromIndex(move);
+        final int to = toIndex(move);
+        final int movingPiece = pieceIndex(move);
+        final int promotion = promotionIndex(move);
         final boolean isCapture = isCapture(move);
         final boolean isPush = isPush(move);
         final boolean isEnPassant = isEnPassant(move);
         final boolean isCastling = isCastling(move);
 
 
-        Backup backup = new Backup(this, move);
-        backups.add(backup);
+        final int index = pushState(move);
 
 
         removePiece(movingPiece, from);
-        Piece capturedPiece = pieceAt(to);
+        int capturedPiece = mailbox[to];
 
 
         if (isCapture && !isEnPassant) {
             removePiece(capturedPiece, to);
-            backup.setCapturedSquare(to);
+            stackCapturedSquare[index] = to;
         }
 
 
-        if (!promotion.equals(Piece.NONE))
+        if (promotion != NO_PIECE)
             setPiece(promotion, to);
         else
             setPiece(movingPiece, to);
 
 
         if (isEnPassant) {
-            capturedPiece = pieceAt(enPassantTarget);
-            if (!capturedPiece.equals(Piece.NONE)) {
+            capturedPiece = mailbox[enPassantTarget];
+            if (capturedPiece != NO_PIECE) {
                 removePiece(capturedPiece, enPassantTarget);
-                backup.setCapturedSquare(enPassantTarget);
+                stackCapturedSquare[index] = enPassantTarget;
             }
         }
 
 
-        backup.setCapturedPiece(capturedPiece);
-        if (capturedPiece.equals(Piece.NONE))
+        stackCapturedPiece[index] = capturedPiece;
+        if (capturedPiece == NO_PIECE)
             fiftyMove++;
         else
             fiftyMove = 0;
 
 
-        if (!enPassant.equals(Square.NONE))
-            hashKey ^= enPassantKeys[enPassant.ordinal()];
+        if (enPassant != NO_SQUARE)
+            hashKey ^= enPassantKeys[enPassant];
 
 
-        enPassant = Square.NONE;
-        enPassantTarget = Square.NONE;
+        enPassant = NO_SQUARE;
+        enPassantTarget = NO_SQUARE;
 
 
-        if (movingPiece.pieceType().equals(PieceType.PAWN)) {
+        if (typeOf(movingPiece) == PAWN) {
             fiftyMove = 0;
             if (isPush) {
                 // set enPassant behind the pawn
-                if (sideToMove.equals(Side.WHITE))
-                    enPassant = squareAt(to.ordinal() - 8);
-                else
-                    enPassant = squareAt(to.ordinal() + 8);
+                enPassant = to - pawnPush(us);
                 enPassantTarget = to;
-                hashKey ^= enPassantKeys[enPassant.ordinal()];
+                hashKey ^= enPassantKeys[enPassant];
             }
         }
 
 
         if (isCastling) {
-            switch (to) {
-                case G1 -> {
-                    removePiece(WHITE_ROOK, H1);
-                    setPiece(WHITE_ROOK, F1);
-                }
-                case C1 -> {
-                    removePiece(WHITE_ROOK, A1);
-                    setPiece(WHITE_ROOK, D1);
-                }
-                case G8 -> {
-                    removePiece(BLACK_ROOK, H8);
-                    setPiece(BLACK_ROOK, F8);
-                }
-                case C8 -> {
-                    removePiece(BLACK_ROOK, A8);
-                    setPiece(BLACK_ROOK, D8);
-                }
-            }
+            final int rook = makePiece(us, ROOK);
+            removePiece(rook, castlingRookFrom[to]);
+            setPiece(rook, castlingRookTo[to]);
         }
 
 
         hashKey ^= castlingKeys[castlingRight];
-        castlingRight &= castlingRights[from.ordinal()];
-        castlingRight &= castlingRights[to.ordinal()];
+        castlingRight &= castlingRights[from];
+        castlingRight &= castlingRights[to];
         hashKey ^= castlingKeys[castlingRight];
 
 
-        if (sideToMove.equals(Side.BLACK))
+        if (us == BLACK)
             moveCounter++;
 
 
@@ -871,29 +1275,59 @@ public class Board {
         hashKey ^= sideKey;
         repetitionTable[repetitionIndex++] = hashKey;
         gamePly++;
+    }
 
 
-        if (isKingAttacked(sideToMove.flip())) {
-            undoMove();
-            return false;
-        }
+    // a restored snapshot puts keys in the repetition table that have no stack
+    // slot, so the two arrays are grown separately
+    private void ensureStackCapacity(int size, int keys) {
+        if (keys > repetitionTable.length)
+            repetitionTable = Arrays.copyOf(repetitionTable, Math.max(keys, 2 * repetitionTable.length));
+        if (size <= stackMove.length)
+            return;
 
 
-        return true;
+        int capacity = Math.max(size, 2 * stackMove.length);
+        stackMove = Arrays.copyOf(stackMove, capacity);
+        stackCapturedPiece = Arrays.copyOf(stackCapturedPiece, capacity);
+        stackCapturedSquare = Arrays.copyOf(stackCapturedSquare, capacity);
+        stackEnPassant = Arrays.copyOf(stackEnPassant, capacity);
+        stackEnPassantTarget = Arrays.copyOf(stackEnPassantTarget, capacity);
+        stackCastlingRight = Arrays.copyOf(stackCastlingRight, capacity);
+        stackFiftyMove = Arrays.copyOf(stackFiftyMove, capacity);
+        stackMoveCounter = Arrays.copyOf(stackMoveCounter, capacity);
+        stackHashKey = Arrays.copyOf(stackHashKey, capacity);
+    }
+
+
+    private int pushState(int move) {
+        if (stackSize == stackMove.length || repetitionIndex == repetitionTable.length)
+            ensureStackCapacity(stackSize + 1, repetitionIndex + 1);
+        final int index = stackSize++;
+        stackMove[index] = move;
+        stackCapturedPiece[index] = NO_PIECE;
+        stackCapturedSquare[index] = NO_SQUARE;
+        stackEnPassant[index] = enPassant;
+        stackEnPassantTarget[index] = enPassantTarget;
+        stackCastlingRight[index] = castlingRight;
+        stackFiftyMove[index] = fiftyMove;
+        stackMoveCounter[index] = moveCounter;
+        stackHashKey[index] = hashKey;
+        return index;
     }
 
 
     public void doNullMove() {
-        backups.add(new Backup(this, 0));
+        pushState(0);
 
 
-        if (!enPassant.equals(Square.NONE))
-            hashKey ^= enPassantKeys[enPassant.ordinal()];
+        if (enPassant != NO_SQUARE)
+            hashKey ^= enPassantKeys[enPassant];
 
 
         fiftyMove++;
-        enPassant = Square.NONE;
-        enPassantTarget = Square.NONE;
+        enPassant = NO_SQUARE;
+        enPassantTarget = NO_SQUARE;
         sideToMove = sideToMove.flip();
         hashKey ^= sideKey;
         repetitionTable[repetitionIndex++] = hashKey;
@@ -902,33 +1336,85 @@ public class Board {
 
 
     public int undoMove() {
-        final Backup backup = backups.removeLast();
-        int move = 0;
+        final int index = --stackSize;
+        final int move = stackMove[index];
+
 
+        sideToMove = sideToMove.flip();
+        enPassant = stackEnPassant[index];
+        enPassantTarget = stackEnPassantTarget[index];
+        castlingRight = stackCastlingRight[index];
+        fiftyMove = stackFiftyMove[index];
+        moveCounter = stackMoveCounter[index];
+        gamePly--;
+
+
+        // undo move
+        if (move != 0) {
+            final int us = sideToMove.ordinal();
+            final int promotion = promotionIndex(move);
+            final int movingPiece = promotion == NO_PIECE
+                                  ? pieceIndex(move)
+                                  : promotion;
+            final int from = fromIndex(move);
+            final int to = toIndex(move);
+            final int capturedPiece = stackCapturedPiece[index];
+
+
+            // undo rook castling
+            if (isCastling(move)) {
+                final int rook = makePiece(us, ROOK);
+                removePiece(rook, castlingRookTo[to]);
+                setPiece(rook, castlingRookFrom[to]);
+            }
 
-        if (backup != null) {
-            move = backup.move();
-            backup.restore(this);
+
+            removePiece(movingPiece, to);
+            if (promotion == NO_PIECE)
+                setPiece(movingPiece, from);
+            else
+                setPiece(makePiece(us, PAWN), from);
+
+
+            if (capturedPiece != NO_PIECE)
+                setPiece(capturedPiece, stackCapturedSquare[index]);
         }
 
 
+        hashKey = stackHashKey[index];
         repetitionIndex--;
         return move;
     }
 
 
+    public boolean hasLegalMove() {
+        return MoveGenerator.hasLegalMove(this);
+    }
+
+
+    public int countLegalMoves() {
+        return MoveGenerator.countLegalMoves(this);
+    }
+
+
     public List<Integer> legalMoves() {
         return MoveGenerator.generateLegalMoves(this);
     }
 
 
     public int piecesOnSameSquareColor(Square square, long occupancy) {
-        return Long.bitCount(occupancy & (square.isLightSquare() ? lightSquares : darkSquares));
+        return piecesOnSameSquareColor(square.ordinal(), occupancy);
+    }
+    public int piecesOnSameSquareColor(int square, long occupancy) {
+        return Long.bitCount(occupancy & ((squareBB(square) & lightSquares) != 0L ? lightSquares : darkSquares));
     }
 
 
     public boolean semiOpenFile(Side side, Square square) {
-        return (bitboard(encodePiece(side, PieceType.PAWN)) & fileBB(square)) == 0L;
+        return semiOpenFile(side.ordinal(), square.ordinal());
+    }
+    public boolean semiOpenFile(int side, int square) {
+        return (bitboards[makePiece(side, PAWN)] & fileBB(fileOf(square))) == 0L;
     }
     
 
@@ -944,7 +1430,10 @@ public class Board {
         return kingSquare(sideToMove);
     }
     public Square kingSquare(Side side) {
-        return kingSquares[side.ordinal()];
+        return squareAt(kingSquares[side.ordinal()]);
+    }
+    public int kingSquare(int side) {
+        return kingSquares[side];
     }
 
 
@@ -968,26 +1457,49 @@ public class Board {
     }
 
 
+    // fixed arity accessors, the varargs above allocate an array per call
+    public long sideBitboard(int side) {
+        return occupancies[side];
+    }
+    public long pieceBitboard(int piece) {
+        return bitboards[piece];
+    }
+    public long pieceBitboard(int side, int type) {
+        return bitboards[makePiece(side, type)];
+    }
+    public long typeBitboard(int type) {
+        return typeBitboards[type];
+    }
+    public long typeBitboard(int type1, int type2) {
+        return typeBitboards[type1] | typeBitboards[type2];
+    }
+
+
     public boolean hasCastlingRight(Side us) {
-        return (castlingRight & ((us.equals(Side.WHITE)
+        return hasCastlingRight(us.ordinal());
+    }
+    public boolean hasCastlingRight(int us) {
+        return (castlingRight & ((us == WHITE
                                 ? CastlingRight.WHITE_KING.bit() | CastlingRight.WHITE_QUEEN.bit()
                                 : CastlingRight.BLACK_KING.bit() | CastlingRight.BLACK_QUEEN.bit()))) != 0;
     }
 
 
     public boolean hasKingCastlingRight(Side us) {
-        if (!hasCastlingRight(us))
-            return false;
-        return (us.equals(Side.WHITE)
+        return hasKingCastlingRight(us.ordinal());
+    }
+    public boolean hasKingCastlingRight(int us) {
+        return (us == WHITE
                 ? (castlingRight & CastlingRight.WHITE_KING.bit()) != 0
                 : (castlingRight & CastlingRight.BLACK_KING.bit()) != 0);
     }
 
 
     public boolean hasQueenCastlingRight(Side us) {
-        if (!hasCastlingRight(us))
-            return false;
-        return (us.equals(Side.WHITE)
+        return hasQueenCastlingRight(us.ordinal());
+    }
+    public boolean hasQueenCastlingRight(int us) {
+        return (us == WHITE
                 ? (castlingRight & CastlingRight.WHITE_QUEEN.bit()) != 0
                 : (castlingRight & CastlingRight.BLACK_QUEEN.bit()) != 0);
     }
@@ -1005,6 +1517,9 @@ public class Board {
     public int nonPawnMaterial(Side side) {
         return nonPawnMaterial[side.ordinal()];
     }
+    public int nonPawnMaterial(int side) {
+        return nonPawnMaterial[side];
+    }
     public int psqScore() {
         return psqScore[0] + psqScore[1];
     }
@@ -1040,74 +1555,101 @@ public class Board {
     }
 
 
-    private final Node[] tree = new Node[maxPly];
-    private final Engine engine = new Engine(this);
-    private int ply;
-    {
-        for (int i = 0; i < tree.length; i++)
-            tree[i] = new Node(engine, false);
-    }
-
-
-    public long perft(int depth) {
-        ply = 0;
-        for (Node node : tree)
-            node.clear();
-        return perft(depth, true);
-    }
-
-
-    private long perft(int depth, boolean rootNode) {
-        if (depth <= 0)
-            return 1L;
-
-
-        Node node = tree[ply];
-        node.moveIterator.initialize();
-
-
-        long start = System.currentTimeMillis();
-        long nodes = 0L;
-        int move;
-
-
-        while ((move = node.moveIterator.next()) != 0) {
-            if (!doMove(move))
-                continue;
-
-
-            ply++;
-            long n = perft(depth - 1, false);
-            nodes += n;
-            undoMove();
-            ply--;
-
-
-            if (rootNode) {
-                Move.printMove(move);
-                System.out.printf(": %d\n", n);
-            }
+    // copies board into this one, game history included, without going through a fen
+    public void setPosition(Board board) {
+        ensureStackCapacity(board.stackSize, board.repetitionIndex);
+        stackSize = board.stackSize;
+        System.arraycopy(board.stackMove, 0, stackMove, 0, stackSize);
+        System.arraycopy(board.stackCapturedPiece, 0, stackCapturedPiece, 0, stackSize);
+        System.arraycopy(board.stackCapturedSquare, 0, stackCapturedSquare, 0, stackSize);
+        System.arraycopy(board.stackEnPassant, 0, stackEnPassant, 0, stackSize);
+        System.arraycopy(board.stackEnPassantTarget, 0, stackEnPassantTarget, 0, stackSize);
+        System.arraycopy(board.stackCastlingRight, 0, stackCastlingRight, 0, stackSize);
+        System.arraycopy(board.stackFiftyMove, 0, stackFiftyMove, 0, stackSize);
+        System.arraycopy(board.stackMoveCounter, 0, stackMoveCounter, 0, stackSize);
+        System.arraycopy(board.stackHashKey, 0, stackHashKey, 0, stackSize);
+        repetitionIndex = board.repetitionIndex;
+        System.arraycopy(board.repetitionTable, 0, repetitionTable, 0, repetitionIndex);
+
+
+        System.arraycopy(board.kingSquares, 0, kingSquares, 0, 2);
+        System.arraycopy(board.mailbox, 0, mailbox, 0, 64);
+        System.arraycopy(board.bitboards, 0, bitboards, 0, 12);
+        System.arraycopy(board.typeBitboards, 0, typeBitboards, 0, 6);
+        System.arraycopy(board.occupancies, 0, occupancies, 0, 2);
+        System.arraycopy(board.pieceCount, 0, pieceCount, 0, 12);
+        System.arraycopy(board.nonPawnMaterial, 0, nonPawnMaterial, 0, 2);
+        System.arraycopy(board.psqScore, 0, psqScore, 0, 2);
+        System.arraycopy(board.attacksFrom, 0, attacksFrom, 0, 64);
+        System.arraycopy(board.attackersTo, 0, attackersTo, 0, 64);
+        attackedByValid = false;
+        checkInfoValid = false;
+
+
+        sideToMove = board.sideToMove;
+        enPassant = board.enPassant;
+        enPassantTarget = board.enPassantTarget;
+        hashKey = board.hashKey;
+        pawnKey = board.pawnKey;
+        materialKey = board.materialKey;
+        castlingRight = board.castlingRight;
+        fiftyMove = board.fiftyMove;
+        moveCounter = board.moveCounter;
+        gamePly = board.gamePly;
+    }
+
+
+    public void save(BoardSnapshot snapshot) {
+        System.arraycopy(mailbox, 0, snapshot.mailbox, 0, 64);
+        snapshot.sideToMove = sideToMove.ordinal();
+        snapshot.enPassant = enPassant;
+        snapshot.enPassantTarget = enPassantTarget;
+        snapshot.castlingRight = castlingRight;
+        snapshot.fiftyMove = fiftyMove;
+        snapshot.moveCounter = moveCounter;
+        snapshot.gamePly = gamePly;
+        snapshot.hashKey = hashKey;
+
+
+        // only the keys a repetition can still reach
+        final int keys = Math.min(Math.min(fiftyMove, repetitionIndex - 1), BoardSnapshot.MAX_HISTORY);
+        System.arraycopy(repetitionTable, repetitionIndex - 1 - keys, snapshot.history, 0, keys);
+        snapshot.historyLength = keys;
+    }
+
+
+    // the undo stack is not part of a snapshot, a restored board starts
+    // a new game history that still sees the repetitions before it
+    public void restore(BoardSnapshot snapshot) {
+        resetBoard();
+        for (int square = 0; square < 64; square++) {
+            if (snapshot.mailbox[square] != NO_PIECE)
+                setPiece(snapshot.mailbox[square], square);
         }
 
 
-        if (rootNode) {
-            System.out.println();
-            System.out.printf("Nodes searhed: %d\nTime: %d", nodes, System.currentTimeMillis() - start);
-            System.out.println();
-        }
+        sideToMove = Side.allSides[snapshot.sideToMove];
+        enPassant = snapshot.enPassant;
+        enPassantTarget = snapshot.enPassantTarget;
+        castlingRight = snapshot.castlingRight;
+        fiftyMove = snapshot.fiftyMove;
+        moveCounter = snapshot.moveCounter;
+        gamePly = snapshot.gamePly;
+        // from the restored pieces, the stored key is only checked against them
+        hashKey = generateHashKey();
 
 
-        return nodes;
+        ensureStackCapacity(0, snapshot.historyLength + 1);
+        System.arraycopy(snapshot.history, 0, repetitionTable, 0, snapshot.historyLength);
+        repetitionIndex = snapshot.historyLength;
+        repetitionTable[repetitionIndex++] = hashKey;
     }
 
 
     @Override
     protected Board clone() {
         Board board = new Board();
-        board.setFen(generateFen());
-        board.backups.addAll(backups);
-        board.repetitionIndex = repetitionIndex;
-        System.arraycopy(repetitionTable, 0, board.repetitionTable, 0, repetitionTable.length);
+        board.setPosition(this);
         return board;
     }
 
@@ -0,0 +1,52 @@
+package com.chess;
+
+public class BoardConstants {
+
+    /*
+                  ! Primitive encodings !
+       sides, piece types, pieces and squares as plain ints for the hot
+       paths. the values are the ordinals of Side, PieceType, Piece and
+       Square, so Piece.allPieces[piece] and Square.squareAt(square)
+       always convert back to the enums
+                                                                     */
+    public static final int WHITE = 0, BLACK = 1;
+    public static final int PAWN = 0, KNIGHT = 1, BISHOP = 2, ROOK = 3, QUEEN = 4, KING = 5, NO_TYPE = 6;
+    public static final int W_PAWN = 0, W_KNIGHT = 1, W_BISHOP = 2, W_ROOK = 3, W_QUEEN = 4, W_KING = 5,
+                            B_PAWN = 6, B_KNIGHT = 7, B_BISHOP = 8, B_ROOK = 9, B_QUEEN = 10, B_KING = 11,
+                            NO_PIECE = 12;
+    public static final int NO_SQUARE = 64;
+
+
+    private static final int[] pieceTypes = {0, 1, 2, 3, 4, 5, 0, 1, 2, 3, 4, 5, NO_TYPE};
+    private static final int[] pieceSides = {0, 0, 0, 0, 0, 0, 1, 1, 1, 1, 1, 1, 2};
+
+
+    public static int makePiece(int side, int type) {
+        return type + side * 6;
+    }
+    public static int typeOf(int piece) {
+        return pieceTypes[piece];
+    }
+    public static int sideOf(int piece) {
+        return pieceSides[piece];
+    }
+
+
+    public static int rankOf(int square) {
+        return square >>> 3;
+    }
+    public static int fileOf(int square) {
+        return square & 7;
+    }
+    public static int relativeSquare(int side, int square) {
+        return square ^ (side * 56);
+    }
+    public static int relativeRank(int side, int square) {
+        return (square >>> 3) ^ (side * 7);
+    }
+    public static int pawnPush(int side) {
+        return 8 - 16 * side;
+    }
+
+
+}
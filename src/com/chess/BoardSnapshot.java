@@ -0,0 +1,172 @@
+package com.chess;
+
+import java.nio.ByteBuffer;
+
+import static com.chess.BoardConstants.*;
+
+public class BoardSnapshot {
+
+    /*
+                      ! Board snapshot !
+       a position as plain primitives, enough to restore a board with
+       Board.restore and nothing derived from it. of the game history
+       only the keys of the fifty move window are kept, since no
+       position before the last capture or pawn move can repeat
+
+       fixed size byte form, in the byte order of the buffer
+         bytes    0-63    mailbox
+         bytes   64-95    side to move, en passant, en passant target,
+                          castling right, fifty move, move counter,
+                          game ply, history length
+         bytes   96-103   hash key
+         bytes  104-903   history keys, oldest first
+
+       read checks every field and the hash key against the pieces, so
+       a corrupt buffer is refused instead of giving a broken board
+                                                                     */
+    public static final int MAX_HISTORY = 100;
+    public static final int SIZE = 104 + MAX_HISTORY * 8;
+
+
+    final byte[] mailbox = new byte[64];
+    int sideToMove;
+    int enPassant;
+    int enPassantTarget;
+    int castlingRight;
+    int fiftyMove;
+    int moveCounter;
+    int gamePly;
+    long hashKey;
+    final long[] history = new long[MAX_HISTORY];
+    int historyLength;
+
+
+    public long hashKey() {
+        return hashKey;
+    }
+
+
+    public void write(ByteBuffer buffer, int offset) {
+        for (int i = 0; i < 64; i++)
+            buffer.put(offset + i, mailbox[i]);
+
+
+        buffer.putInt(offset + 64, sideToMove);
+        buffer.putInt(offset + 68, enPassant);
+        buffer.putInt(offset + 72, enPassantTarget);
+        buffer.putInt(offset + 76, castlingRight);
+        buffer.putInt(offset + 80, fiftyMove);
+        buffer.putInt(offset + 84, moveCounter);
+        buffer.putInt(offset + 88, gamePly);
+        buffer.putInt(offset + 92, historyLength);
+        buffer.putLong(offset + 96, hashKey);
+
+
+        // unused slots are zeroed so equal snapshots give equal bytes
+        for (int i = 0; i < MAX_HISTORY; i++)
+            buffer.putLong(offset + 104 + i * 8, i < historyLength ? history[i] : 0L);
+    }
+
+
+    // a corrupt buffer throws before anything is read into the snapshot
+    public void read(ByteBuffer buffer, int offset) {
+        check(buffer, offset);
+        for (int i = 0; i < 64; i++)
+            mailbox[i] = buffer.get(offset + i);
+
+
+        sideToMove = buffer.getInt(offset + 64);
+        enPassant = buffer.getInt(offset + 68);
+        enPassantTarget = buffer.getInt(offset + 72);
+        castlingRight = buffer.getInt(offset + 76);
+        fiftyMove = buffer.getInt(offset + 80);
+        moveCounter = buffer.getInt(offset + 84);
+        gamePly = buffer.getInt(offset + 88);
+        historyLength = buffer.getInt(offset + 92);
+        hashKey = buffer.getLong(offset + 96);
+
+
+        for (int i = 0; i < historyLength; i++)
+            history[i] = buffer.getLong(offset + 104 + i * 8);
+    }
+
+
+    private static void check(ByteBuffer buffer, int offset) {
+        final int side = buffer.getInt(offset + 64);
+        if (side != WHITE && side != BLACK)
+            throw invalid("side to move", side);
+
+
+        long key = 0L;
+        int whiteKings = 0, blackKings = 0;
+        for (int square = 0; square < 64; square++) {
+            final int piece = buffer.get(offset + square);
+            if (piece == NO_PIECE)
+                continue;
+            if (piece < 0 || piece > NO_PIECE)
+                throw invalid("piece on square " + square, piece);
+            if (typeOf(piece) == PAWN && (rankOf(square) == 0 || rankOf(square) == 7))
+                throw invalid("pawn on square", square);
+            whiteKings += piece == W_KING ? 1 : 0;
+            blackKings += piece == B_KING ? 1 : 0;
+            key ^= Board.pieceKeys[piece][square];
+        }
+        if (whiteKings != 1 || blackKings != 1)
+            throw invalid("king count", whiteKings + blackKings);
+
+
+        // en passant is set behind every double push of the side that just moved
+        final int enPassant = buffer.getInt(offset + 68);
+        final int enPassantTarget = buffer.getInt(offset + 72);
+        if (enPassant != NO_SQUARE) {
+            if (enPassant < 0 || enPassant > 63 || relativeRank(side, enPassant) != 5
+                    || enPassantTarget != enPassant - pawnPush(side)
+                    || buffer.get(offset + enPassant) != NO_PIECE
+                    || buffer.get(offset + enPassantTarget) != makePiece(side ^ 1, PAWN))
+                throw invalid("en passant square", enPassant);
+            key ^= Board.enPassantKeys[enPassant];
+        } else if (enPassantTarget != NO_SQUARE)
+            throw invalid("en passant target", enPassantTarget);
+
+
+        // each right needs its king and rook at home
+        final int castlingRight = buffer.getInt(offset + 76);
+        if (castlingRight < 0 || castlingRight > 15)
+            throw invalid("castling right", castlingRight);
+        for (int right = 0; right < 4; right++) {
+            if ((castlingRight & (1 << right)) == 0)
+                continue;
+            final int us = right / 2;
+            if (buffer.get(offset + relativeSquare(us, 4)) != makePiece(us, KING)
+                    || buffer.get(offset + relativeSquare(us, right % 2 == 0 ? 7 : 0)) != makePiece(us, ROOK))
+                throw invalid("castling right", castlingRight);
+        }
+        key ^= Board.castlingKeys[castlingRight];
+
+
+        final int fiftyMove = buffer.getInt(offset + 80);
+        if (fiftyMove < 0)
+            throw invalid("fifty move", fiftyMove);
+        if (buffer.getInt(offset + 84) < 0)
+            throw invalid("move counter", buffer.getInt(offset + 84));
+        if (buffer.getInt(offset + 88) < 0)
+            throw invalid("game ply", buffer.getInt(offset + 88));
+        // save keeps no more keys than the fifty move window holds
+        final int historyLength = buffer.getInt(offset + 92);
+        if (historyLength < 0 || historyLength > Math.min(fiftyMove, MAX_HISTORY))
+            throw invalid("history length", historyLength);
+
+
+        if (side == BLACK)
+            key ^= Board.sideKey;
+        if (key != buffer.getLong(offset + 96))
+            throw new IllegalArgumentException("hash key does not match the position");
+    }
+
+
+    private static IllegalArgumentException invalid(String field, int value) {
+        return new IllegalArgumentException(field + " " + value + " is not valid");
+    }
+
+
+}
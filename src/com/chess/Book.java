@@ -73,7 +73,7 @@ public class Book {
         for (Integer[] variation : variations) {
             boolean foundVariation = false;
             for (int j = board.gamePly() - 1; j >= 0; j--) {
-                if (board.backups().get(j).move() == variation[j])
+                if (board.moveAt(j) == variation[j])
                     foundVariation = true;
                 else {
                     foundVariation = false;
@@ -3,13 +3,12 @@ package com.chess;
 import java.util.*;
 import java.util.stream.Stream;
 
-import static com.chess.Evaluator.*;
 import static com.chess.ScoreConstants.*;
 import static com.chess.Score.*;
 import static com.chess.Move.*;
-import static com.chess.MoveIterator.*;
 import static com.chess.SearchConstants.*;
 import static com.chess.IntegerUtil.*;
+import static com.chess.BoardConstants.*;
 import com.chess.TranspositionTable;
 
 public class Engine {
@@ -19,25 +18,52 @@ public class Engine {
     }
 
 
+    // helper threads skip some iterations so they do not all search the same depth
+    private static final int[] skipSize = {1, 1, 2, 2, 2, 2, 3, 3, 3, 3, 3, 3, 4, 4, 4, 4, 4, 4, 4, 4};
+    private static final int[] skipPhase = {0, 1, 0, 1, 2, 3, 0, 1, 2, 3, 4, 5, 0, 1, 2, 3, 4, 5, 6, 7};
+
+
     private final Node[] tree;
     private final RootMove rm;
     private final TimeManager tm;
     private final Board board;
     private final TranspositionTable TT;
+    private final EvalCache evalCache;
+    private final Evaluator evaluator;
+    private final int threadIndex;
+    private Engine[] helpers;
+
+
+    private final int[] lowPlyHistory = new int[4 * 64 * 64];
+    private final int[] butterflyHistory = new int[2 * 64 * 64];
+    private final int[] captureHistory = new int[12 * 64 * 6];
+    private final int[] counterMoves = new int[12 * 64];
 
 
     private int selDepth = 0;
     private int rootDepth = 0;
     private int ply = 0;
     private long nodes = 0L;
+    // nodes spent below the current best root move
+    private long bestMoveNodes = 0L;
+    private long ttEvals = 0L;
 
 
     public Engine(Board board) {
+        this(board, new TranspositionTable(64), new EvalCache(1 << 18), new TimeManager(), 0);
+    }
+
+
+    private Engine(Board board, TranspositionTable TT, EvalCache evalCache, TimeManager tm, int threadIndex) {
         this.board = board;
+        this.TT = TT;
+        this.tm = tm;
+        this.threadIndex = threadIndex;
         tree = new Node[maxPly];
         rm = new RootMove(this);
-        tm = new TimeManager();
-        TT = new TranspositionTable(64);
+        this.evalCache = evalCache;
+        evaluator = new Evaluator(evalCache);
+        helpers = new Engine[0];
 
 
         for (int i = 0; i < tree.length; i++)
@@ -45,6 +71,20 @@ public class Engine {
     }
 
 
+    public void setThreads(int threads) {
+        // every helper searches its own copy of the board and shares the transposition table
+        helpers = new Engine[Math.max(0, threads - 1)];
+        for (int i = 0; i < helpers.length; i++)
+            helpers[i] = new Engine(new Board(), TT, evalCache, tm, i + 1);
+    }
+    public int threads() {
+        return helpers.length + 1;
+    }
+    public boolean isMainThread() {
+        return threadIndex == 0;
+    }
+
+
     public Node[] tree() {
         return tree;
     }
@@ -64,6 +104,21 @@ public class Engine {
     public int ply() {
         return ply;
     }
+    public int[] butterflyHistory() {
+        return butterflyHistory;
+    }
+    public int[] captureHistory() {
+        return captureHistory;
+    }
+    public int[] counterMoves() {
+        return counterMoves;
+    }
+    public long totalNodes() {
+        long total = nodes;
+        for (Engine helper : helpers)
+            total += helper.nodes;
+        return total;
+    }
 
 
     private static final int[] plyOffsets = {1, 2, 4, 6};
@@ -75,20 +130,16 @@ public class Engine {
 
             if (ply - offset >= 0 && tree[ply - offset].currentMove != 0) {
                 Node node = tree[ply - offset];
-                Piece movingPiece = movingPiece(move);
-                Square to = to(move);
-                int entry = node.quietHistory[movingPiece.ordinal() * 64 + to.ordinal()];
-                node.quietHistory[movingPiece.ordinal() * 64 + to.ordinal()] += bonus - entry * Math.abs(bonus) / 29952;
+                int index = pieceIndex(move) * 64 + toIndex(move);
+                node.quietHistory[index] += bonus - node.quietHistory[index] * Math.abs(bonus) / 29952;
             }
         }
     }
 
 
-    private void updateButterflyStats(Side side, int move, int bonus) {
-        Square from = from(move);
-        Square to = to(move);
-        int entry = butterflyHistory[to.ordinal() + 64 * (from.ordinal() + 64 * side.ordinal())];
-        butterflyHistory[to.ordinal() + 64 * (from.ordinal() + 64 * side.ordinal())] += bonus - entry * Math.abs(bonus) / 13365;
+    private void updateButterflyStats(int side, int move, int bonus) {
+        int index = toIndex(move) + 64 * (fromIndex(move) + 64 * side);
+        butterflyHistory[index] += bonus - butterflyHistory[index] * Math.abs(bonus) / 13365;
     }
 
 
@@ -99,29 +150,29 @@ public class Engine {
         }
 
 
-        updateButterflyStats(board.sideToMove(), move, bonus);
+        int us = board.sideToMoveIndex();
+        updateButterflyStats(us, move, bonus);
         updateHistoryStats(ply, move, bonus);
-        if (!movingPiece(move).pieceType().equals(PieceType.PAWN))
-            updateButterflyStats(board.sideToMove(), encodeMove(to(move), from(move), Piece.NONE, Piece.NONE, 0, 0, 0, 0), -bonus);
+        if (typeOf(pieceIndex(move)) != PAWN)
+            updateButterflyStats(us, encodeMove(toIndex(move), fromIndex(move), NO_PIECE, NO_PIECE, 0, 0, 0, 0), -bonus);
 
 
         if (ply > 0 && tree[ply - 1].currentMove != 0) {
             int prevMove = tree[ply - 1].currentMove;
-            counterMoves[movingPiece(prevMove).ordinal() * 64 + to(prevMove).ordinal()] = move;
+            counterMoves[pieceIndex(prevMove) * 64 + toIndex(prevMove)] = move;
         }
     }
 
 
     private void updateCaptureStats(int move, int bonus) {
-        Piece capturedPiece = board.pieceAt(to(move));
-        if (capturedPiece.equals(Piece.NONE) && isEnPassant(move))
-            capturedPiece = board.pieceAt(board.enPassantTarget());
+        int to = toIndex(move);
+        int capturedPiece = board.pieceOn(to);
+        if (capturedPiece == NO_PIECE && isEnPassant(move))
+            capturedPiece = board.pieceOn(board.enPassantTargetIndex());
 
 
-        Piece movingPiece = movingPiece(move);
-        Square to = to(move);
-        int entry = captureHistory[capturedPiece.pieceType().ordinal() + 6 * (to.ordinal() + 64 * movingPiece.ordinal())];
-        captureHistory[capturedPiece.pieceType().ordinal() + 6 * (to.ordinal() + 64 * movingPiece.ordinal())] += bonus - entry * Math.abs(bonus) / 10692;
+        int index = typeOf(capturedPiece) + 6 * (to + 64 * pieceIndex(move));
+        captureHistory[index] += bonus - captureHistory[index] * Math.abs(bonus) / 10692;
     }
 
 
@@ -134,7 +185,7 @@ public class Engine {
             updateQuietStats(node, bestMove, quietBonus);
             for (int i = 0; i < node.quietMoveIndex; i++) {
                 int quietMove = node.quietMoves[i];
-                updateButterflyStats(board.sideToMove(), quietMove, -quietBonus);
+                updateButterflyStats(board.sideToMoveIndex(), quietMove, -quietBonus);
                 updateHistoryStats(ply, quietMove, -quietBonus);
             }
         } else if (isCapture(bestMove))
@@ -149,15 +200,16 @@ public class Engine {
 
 
     private void clearSearch() {
-        tm.resetTimeControl();
         rm.clear();
-        TT.recordCount(0);
 
 
         selDepth = 0;
         rootDepth = 0;
         ply = 0;
         nodes = 0L;
+        bestMoveNodes = 0L;
+        ttEvals = 0L;
+        evaluator.clearStats();
 
 
         for (Node node : tree)
@@ -169,6 +221,38 @@ public class Engine {
     }
 
 
+    // only the main thread looks at the clock and the node count, the helpers see its stop
+    private void checkLimits() {
+        if (!isMainThread())
+            return;
+        // summing the helpers' counters every node would pull their cache lines across cores
+        if (tm.nodeLimited() && (helpers.length == 0 || (nodes & (TimeManager.CHECK_NODES - 1)) == 0L))
+            tm.checkNodes(totalNodes());
+        if ((nodes & (TimeManager.CHECK_NODES - 1)) == 0L)
+            tm.checkTime();
+    }
+
+
+    private boolean isDraw() {
+        // same rules as Board.isDraw(false) with the material verdict coming from the material table
+        return board.fiftyMove() >= 100
+            || board.isRepetition(3)
+            || evaluator.material(board).insufficientMaterial;
+    }
+
+
+    private void printCacheStats() {
+        long probes = 0L, hits = 0L, ttEvals = 0L;
+        for (Engine engine : allThreads()) {
+            probes += engine.evaluator.cacheProbes();
+            hits += engine.evaluator.cacheHits();
+            ttEvals += engine.ttEvals;
+        }
+        System.out.printf("info string eval cache hits %d/%d (%.1f%%) tt evals %d%n",
+                hits, probes, 100.0 * hits / Math.max(probes, 1L), ttEvals);
+    }
+
+
     private void printInfo(int value, int alpha, int beta, int depth) {
         if (!(rm.pvLength[0] > 0))
             return;
@@ -192,8 +276,10 @@ public class Engine {
             System.out.print("upperbound ");
 
 
+        long nodes = totalNodes();
         System.out.printf("nodes %d ", nodes);
         System.out.printf("nps %d ", nodes * 1000L / (tm.elapsed() + 1));
+        System.out.printf("hashfull %d ", TT.hashfull());
         System.out.printf("time %d ", tm.elapsed());
 
 
@@ -210,13 +296,24 @@ public class Engine {
 
 
         nodes++;
+        checkLimits();
         Node node = tree[ply];
         node.inCheck = board.isKingAttacked();
         node.pvNode = beta - alpha > 1;
+        // qsearch does not probe the table, a hash move here would be left by another position
+        node.ttMove = 0;
 
 
         if (ply >= maxPly - 1)
-            return evaluate(board);
+            return evaluator.evaluate(board);
+
+
+        int drawValue = 2 * ((int) nodes & 1) - 1;
+        if (alpha < drawValue && board.hasUpcomingRepetition(ply)) {
+            alpha = drawValue;
+            if (alpha >= beta)
+                return alpha;
+        }
 
 
         alpha = Math.max(alpha, -mateValue + ply);
@@ -228,53 +325,51 @@ public class Engine {
         int bestValue, futilityBase, move;
 
 
-        node.staticEval = evaluate(board);
-        bestValue = node.staticEval;
-        futilityBase = 155 + bestValue;
+        if (node.inCheck) {
+            // no standing pat in check, the static evaluation says nothing about a
+            // position that may be lost. every evasion is searched instead
+            bestValue = -mateValue + ply;
+            futilityBase = -infinity;
+        } else {
+            node.staticEval = evaluator.evaluate(board);
+            bestValue = node.staticEval;
+            futilityBase = 155 + bestValue;
 
 
-        if (bestValue >= beta)
-            return bestValue;
-        if (bestValue > alpha)
-            alpha = bestValue;
+            if (bestValue >= beta)
+                return bestValue;
+            if (bestValue > alpha)
+                alpha = bestValue;
+        }
 
 
         MoveIterator iterator = node.moveIterator;
-        iterator.initialize();
+        iterator.initializeQuiescence(depth, node.inCheck);
         node.movesIterated = 0;
 
 
         while ((move = iterator.next()) != 0) {
-            if (!board.doMove(move))
-                continue;
-
-
             node.movesIterated++;
-            boolean givesCheck = board.isKingAttacked();
-            if (!isCapture(move) && promotion(move).equals(Piece.NONE)) {
-                board.undoMove();
-                continue;
-            }
 
 
-            if (promotion(move).equals(Piece.NONE) && !givesCheck) {
-                Piece capturedPiece = board.backups().getLast().capturedPiece();
-                int futilityValue = futilityBase + egValue(pieceScores[capturedPiece.pieceType().ordinal()]);
+            // captures are pruned before they are made, evasions never
+            if (!node.inCheck && promotionIndex(move) == NO_PIECE && !board.givesCheck(move)) {
+                int capturedType = isEnPassant(move) ? PAWN : typeOf(board.pieceOn(toIndex(move)));
+                int futilityValue = futilityBase + egValue(pieceScores[capturedType]);
                 if (futilityValue <= alpha) {
                     bestValue = Math.max(bestValue, futilityValue);
-                    board.undoMove();
                     continue;
                 }
 
 
-                if (futilityBase <= alpha && iterator.lastMoveSee() <= 0) {
+                if (futilityBase <= alpha && !iterator.lastMoveSeeGE(1)) {
                     bestValue = Math.max(bestValue, futilityBase);
-                    board.undoMove();
                     continue;
                 }
             }
 
 
+            board.doMove(move);
             ply++;
             int value = -qsearch(-beta, -alpha, depth - 1);
             board.undoMove();
@@ -296,8 +391,10 @@ public class Engine {
         }
 
 
-        if (node.movesIterated == 0)
-            bestValue = (node.inCheck ? -mateValue + ply : 0);
+        // in check no evasion leaves the mate score. out of check only captures
+        // were generated, a quiet move may still be there
+        if (node.movesIterated == 0 && !node.inCheck && !board.hasLegalMove())
+            bestValue = 0;
 
 
         return bestValue;
@@ -317,28 +414,29 @@ public class Engine {
 
 
         nodes++;
+        checkLimits();
         rm.pvLength[ply] = ply;
 
 
-        Side us;
+        int us;
         Node node;
-        TTEntry tte;
+        long ttData;
         int ttValue, oldAlpha, bestValue, value, bestMove, move;
-        boolean priorCapture, improving, didLMR, givesCheck;
+        boolean ttHit, priorCapture, improving, didLMR, givesCheck;
 
 
         if (depth <= 0)
             return qsearch(alpha, beta, 0);
 
 
-        us = board.sideToMove();
+        us = board.sideToMoveIndex();
         node = tree[ply];
         node.inCheck = board.isKingAttacked();
         node.pvNode = beta - alpha > 1;
         node.quietMoveIndex = 0;
         node.captureIndex = 0;
         node.movesIterated = 0;
-        priorCapture = board.backups().size() > 0 && !board.backups().getLast().capturedPiece().equals(Piece.NONE);
+        priorCapture = board.lastCapturedPieceIndex() != NO_PIECE;
         improving = false;
 
 
@@ -348,8 +446,17 @@ public class Engine {
 
         // draw detection
         if (ply > 0) {
-            if (board.isDraw(false) || ply >= maxPly - 1)
-                return (ply >= maxPly - 1 ? evaluate(board) : (2 * ((int) nodes & 1) - 1));
+            if (isDraw() || ply >= maxPly - 1)
+                return (ply >= maxPly - 1 ? evaluator.evaluate(board) : (2 * ((int) nodes & 1) - 1));
+
+
+            // a move back to an earlier position is available, the draw is a lower bound
+            int drawValue = 2 * ((int) nodes & 1) - 1;
+            if (alpha < drawValue && board.hasUpcomingRepetition(ply)) {
+                alpha = drawValue;
+                if (alpha >= beta)
+                    return alpha;
+            }
 
 
             // mate distance pruning
@@ -360,14 +467,15 @@ public class Engine {
         }
 
 
-        tte = TT.probe(board.hashKey());
+        ttData = TT.probe(board.hashKey());
+        ttHit = ttData != 0L;
         ttValue = -infinity;
         oldAlpha = alpha;
-        node.ttMove = (tte == null ? 0 : tte.move);
+        node.ttMove = (ttHit ? TranspositionTable.move(ttData) : 0);
 
 
-        if (tte != null) {
-            ttValue = tte.value;
+        if (ttHit) {
+            ttValue = TranspositionTable.value(ttData);
             if (ttValue >= winValueInMaxPly) {
                 if (ttValue >= mateValue - maxPly && mateValue - ttValue >= 100 - board.fiftyMove())
                     ttValue = mateValue - maxPly - 1;
@@ -385,9 +493,9 @@ public class Engine {
 
 
             if (!node.pvNode && ply > 0) {
-                if (tte.depth >= depth
-                 && (ttValue >= beta ? tte.bound == BOUND_LOWER
-                                     : tte.bound == BOUND_UPPER)) {
+                if (TranspositionTable.depth(ttData) >= depth
+                 && (ttValue >= beta ? TranspositionTable.bound(ttData) == BOUND_LOWER
+                                     : TranspositionTable.bound(ttData) == BOUND_UPPER)) {
                     if (node.ttMove != 0) {
                         if (ttValue >= beta) {
                             if (!isTactical(node.ttMove))
@@ -406,7 +514,12 @@ public class Engine {
         }
 
 
-        node.staticEval = evaluate(board);
+        // the transposition table already holds the static evaluation of this position
+        if (ttHit) {
+            node.staticEval = TranspositionTable.eval(ttData);
+            ttEvals++;
+        } else
+            node.staticEval = evaluator.evaluate(board);
         if (!node.inCheck) {
             if (ply - 2 >= 0 && tree[ply - 2].inCheck)
                 improving = (ply - 4 >= 0 && (node.staticEval > tree[ply - 4].staticEval
@@ -417,7 +530,7 @@ public class Engine {
 
             if (ply > 0 && tree[ply - 1].currentMove != 0 && !tree[ply - 1].inCheck && !priorCapture) {
                 int bonus = -depth * 4 * (tree[ply - 1].staticEval + node.staticEval);
-                updateButterflyStats(us.flip(), tree[ply - 1].currentMove, bonus);
+                updateButterflyStats(us ^ 1, tree[ply - 1].currentMove, bonus);
             }
 
 
@@ -431,7 +544,7 @@ public class Engine {
 
             int R = (1090 + 81 * depth) / 256 + Math.min((node.staticEval - beta) / 205, 3);
             if (!node.pvNode && depth >= R && Math.abs(beta) < mateValue && node.staticEval >= beta
-             && node.staticEval >= beta - 20 * depth - 22 * _int(improving) + 168 * _int(tte != null) + 159
+             && node.staticEval >= beta - 20 * depth - 22 * _int(improving) + 168 * _int(ttHit) + 159
              && !(ply > 0 && tree[ply - 1].currentMove != 0) && board.nonPawnMaterial(us) != 0) {
                 board.doNullMove();
                 ply++;
@@ -473,14 +586,13 @@ public class Engine {
         bestMove = 0;
 
 
-        iterator.initialize();
+        iterator.initialize(depth);
         while ((move = iterator.next()) != 0) {
-            if (!board.doMove(move))
-                continue;
-
-
+            final long moveNodes = nodes;
+            givesCheck = board.givesCheck(move);
+            board.doMove(move);
             node.movesIterated++;
-            if (ply == 0 && tm.elapsed() > 3000 && !tm.didStopped()) {
+            if (ply == 0 && isMainThread() && tm.elapsed() > 3000 && !tm.didStopped()) {
                 System.out.printf("info depth %d currmove %s currmovenumber %d", depth, notation(move), node.movesIterated);
                 System.out.println();
             }
@@ -488,7 +600,6 @@ public class Engine {
 
             int extension = 0;
             int newDepth = depth - 1;
-            givesCheck = board.isKingAttacked();
 
 
             if (depth > 6 && givesCheck && Math.abs(node.staticEval) > 100)
@@ -512,10 +623,10 @@ public class Engine {
                     R += _int(!improving && R > 904);
 
 
-                    int statScore = butterflyHistory[to(move).ordinal() + 64 * (from(move).ordinal() + 64 * us.ordinal())];
+                    int statScore = butterflyHistory[toIndex(move) + 64 * (fromIndex(move) + 64 * us)];
                     for (int offset : plyOffsets) {
                         if (offset != 6 && ply - 1 - offset >= 0)
-                            statScore += tree[ply - 1 - offset].quietHistory[movingPiece(move).ordinal() * 64 + to(move).ordinal()];
+                            statScore += tree[ply - 1 - offset].quietHistory[pieceIndex(move) * 64 + toIndex(move)];
                     }
 
 
@@ -567,6 +678,8 @@ public class Engine {
                 if (value > alpha) {
                     alpha = value;
                     bestMove = move;
+                    if (ply == 0)
+                        bestMoveNodes = nodes - moveNodes;
                     rm.updatePv();
                     if (value >= beta)
                         break;
@@ -613,32 +726,83 @@ public class Engine {
             limit.depth = maxPly;
 
 
-        clearSearch();
+        // the caller has reset the time control, a stop that came since must stand
         tm.initialize(limit, board);
+        TT.newSearch();
 
 
-        new Thread(() -> {
-            if (!tm.timeSet())
-                return;
-            while (!tm.didStopped()) {
-                if (System.currentTimeMillis() > tm.stopTime())
-                    tm.stop();
-            }
-        }).start();
+        // the helpers clear their counters only once they run, a node limit must not see the last search
+        nodes = 0L;
+        for (Engine helper : helpers)
+            helper.nodes = 0L;
+        Thread[] threads = new Thread[helpers.length];
+        for (int i = 0; i < helpers.length; i++) {
+            Engine helper = helpers[i];
+            helper.board.setPosition(board);
+            threads[i] = new Thread(() -> helper.iterativeDeepening(limit));
+            threads[i].start();
+        }
+
+
+        iterativeDeepening(limit);
+        tm.waitForPonderhit();
+
+
+        // the main thread is done, stop the helpers and wait for them to finish
+        tm.stop();
+        for (Thread thread : threads) {
+            try { thread.join(); }
+            catch (InterruptedException e) { Thread.currentThread().interrupt(); }
+        }
+
+
+        printCacheStats();
+        RootMove best = bestThread().rootMove();
+        int bestMove = best.bestMove;
+        int ponder = best.ponder;
+        // stopped before the first iteration was done, any legal move is better than none
+        if (bestMove == 0 && board.hasLegalMove())
+            bestMove = board.legalMoves().get(0);
+
+
+        System.out.print("bestmove ");
+        if (bestMove != 0)
+            System.out.print(notation(bestMove));
+        else
+            System.out.print("(none)");
+
+
+        System.out.print(" ponder ");
+        if (ponder != 0)
+            System.out.print(notation(ponder));
+        else
+            System.out.print("(none)");
+        System.out.println();
+
+
+        return bestMove;
+    }
+
+
+    private void iterativeDeepening(TimeLimit limit) {
+        clearSearch();
 
 
         int value = -infinity;
         int delta = -infinity;
         int alpha = -infinity;
         int beta = infinity;
-        int lastBestMove = 0;
-        int lastPonder = 0;
         int initialVal;
 
 
         for (rootDepth = 1; rootDepth <= limit.depth; rootDepth++) {
-            lastBestMove = rm.pvTable[0];
-            lastPonder = rm.pvTable[1];
+            if (!isMainThread()) {
+                int i = (threadIndex - 1) % skipSize.length;
+                if (((rootDepth + skipPhase[i]) / skipSize[i]) % 2 != 0)
+                    continue;
+            }
+
+
             initialVal = value;
             selDepth = 0;
 
@@ -651,8 +815,11 @@ public class Engine {
 
 
             int failHighCount = 0;
+            boolean failedLow = false;
+            long searchNodes;
             while (true) {
                 int adjustedDepth = Math.max(1, rootDepth);
+                searchNodes = nodes;
                 value = search(alpha, beta, adjustedDepth);
 
 
@@ -660,11 +827,12 @@ public class Engine {
                     break;
 
 
-                if ((value <= alpha || value >= beta) && tm.elapsed() > 3000)
+                if ((value <= alpha || value >= beta) && isMainThread() && tm.elapsed() > 3000)
                     printInfo(value, alpha, beta, rootDepth);
 
 
                 if (value <= alpha) {
+                    failedLow = true;
                     beta = (alpha + beta) / 2;
                     alpha = Math.max(value - delta, -infinity);
                     failHighCount = 0;
@@ -683,30 +851,69 @@ public class Engine {
                 break;
 
 
-            printInfo(value, alpha, beta, rootDepth);
+            // remember the result of the last completed iteration
+            rm.depth = rootDepth;
+            rm.score = value;
+            rm.bestMove = rm.pvTable[0];
+            rm.ponder = rm.pvTable[1];
+
+
+            if (isMainThread())
+                printInfo(value, alpha, beta, rootDepth);
+
+
+            double nodeShare = (double) bestMoveNodes / Math.max(1L, nodes - searchNodes);
+            if (isMainThread() && tm.iterationDone(rm.bestMove, value, nodeShare, failedLow, totalNodes()))
+                break;
         }
+    }
 
 
-        int bestMove = tm.didStopped() ? lastBestMove : rm.pvTable[0];
-        int ponder = tm.didStopped() ? lastPonder : rm.pvTable[1];
+    private Engine bestThread() {
+        Engine best = this;
+        if (helpers.length == 0)
+            return best;
 
 
-        System.out.print("bestmove ");
-        if (bestMove != 0)
-            System.out.print(notation(bestMove));
-        else
-            System.out.print("(none)");
+        // every thread votes for its best move, weighted by depth and score
+        Map<Integer, Long> votes = new HashMap<>();
+        int minScore = infinity;
+        for (Engine thread : allThreads())
+            if (thread.rm.depth > 0)
+                minScore = Math.min(minScore, thread.rm.score);
+        for (Engine thread : allThreads())
+            if (thread.rm.depth > 0)
+                votes.merge(thread.rm.bestMove, (long) (thread.rm.score - minScore + 14) * thread.rm.depth, Long::sum);
 
 
-        System.out.print(" ponder ");
-        if (ponder != 0)
-            System.out.print(notation(ponder));
-        else
-            System.out.print("(none)");
-        System.out.println();
+        for (Engine helper : helpers) {
+            RootMove candidate = helper.rm;
+            RootMove current = best.rm;
+            if (candidate.depth == 0)
+                continue;
 
 
-        return bestMove;
+            if (current.depth == 0)
+                best = helper;
+            else if (Math.abs(current.score) >= winValueInMaxPly) {
+                // prefer the shortest mate
+                if (candidate.score > current.score)
+                    best = helper;
+            } else if (candidate.score >= winValueInMaxPly
+                    || votes.get(candidate.bestMove) > votes.get(current.bestMove))
+                best = helper;
+        }
+
+
+        return best;
+    }
+
+
+    private Engine[] allThreads() {
+        Engine[] threads = new Engine[helpers.length + 1];
+        threads[0] = this;
+        System.arraycopy(helpers, 0, threads, 1, helpers.length);
+        return threads;
     }
 
 
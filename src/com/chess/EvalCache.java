@@ -0,0 +1,48 @@
+package com.chess;
+
+import java.util.Arrays;
+
+public class EvalCache {
+
+    /*
+              ! Entry representation !
+       every entry is two longs, the key xor the value followed by the value,
+       so like the transposition table a torn write only causes a miss and
+       search threads can share the cache without locking
+                                                                     */
+    private static final int ENTRY_SIZE = 2;
+    private static final long USED = 1L << 32;
+    private final long[] table;
+    private final int mask;
+
+
+    public EvalCache(int entries) {
+        // entries has to be a power of two
+        table = new long[entries * ENTRY_SIZE];
+        mask = entries - 1;
+    }
+
+
+    public void clear() {
+        Arrays.fill(table, 0L);
+    }
+
+
+    // returns 0 on a miss, the value is in the low 32 bits of a hit
+    public long probe(long key) {
+        final int index = ((int) key & mask) * ENTRY_SIZE;
+        final long data = table[index + 1];
+        return data != 0L && (table[index] ^ data) == key ? data : 0L;
+    }
+
+
+    public void store(long key, int value) {
+        final int index = ((int) key & mask) * ENTRY_SIZE;
+        // bit 32 marks the slot as used so a value of 0 is not a miss
+        final long data = USED | (value & 0xFFFFFFFFL);
+        table[index + 1] = data;
+        table[index] = key ^ data;
+    }
+
+
+}
@@ -1,7 +1,5 @@
 package com.chess;
 
-import java.util.Arrays;
-
 import static com.chess.Score.*;
 import static com.chess.ScoreConstants.*;
 import static com.chess.IntegerUtil.*;
@@ -9,17 +7,45 @@ import static com.chess.Bitboard.*;
 import static com.chess.Rank.*;
 import static com.chess.File.*;
 import static com.chess.Square.*;
-import static com.chess.Trace.*;
+import static com.chess.BoardConstants.*;
 
 public class Evaluator {
 
-    private static Board board = null;
-    private static final long[] pawns = new long[2];
-    private static final long[] knights = new long[2];
-    private static final long[] bishops = new long[2];
-    private static final long[] rooks = new long[2];
-    private static final long[] queens = new long[2];
-    private static final long[] kings = new long[2];
+    private final Trace trace = new Trace();
+    private final EvalCache evalCache;
+    private long cacheProbes = 0L;
+    private long cacheHits = 0L;
+    private final PawnTable pawnTable = new PawnTable();
+    private PawnEntry pawnEntry = null;
+    private final MaterialTable materialTable = new MaterialTable();
+    private MaterialEntry materialEntry = null;
+    private Board board = null;
+    private final long[] pawns = new long[2];
+    private final long[] knights = new long[2];
+    private final long[] bishops = new long[2];
+    private final long[] rooks = new long[2];
+    private final long[] queens = new long[2];
+    private final long[] kings = new long[2];
+
+
+    public Evaluator() {
+        this(new EvalCache(1 << 16));
+    }
+    public Evaluator(EvalCache evalCache) {
+        this.evalCache = evalCache;
+    }
+
+
+    public long cacheProbes() {
+        return cacheProbes;
+    }
+    public long cacheHits() {
+        return cacheHits;
+    }
+    public void clearStats() {
+        cacheProbes = 0L;
+        cacheHits = 0L;
+    }
 
 
     public static void main(String[] args) {
@@ -29,7 +55,7 @@ public class Evaluator {
 //        board.doMove("d2d4");
 //        board.doMove("d7d5");
         System.out.println(board);
-        trace(board);
+        new Evaluator().trace(board);
     }
 
 
@@ -38,52 +64,67 @@ public class Evaluator {
     }
 
 
-    private static void update() {
-        Arrays.fill(passedPawns, 0L);
-        Arrays.fill(pawnAttackSpan, 0L);
-        passedPawnCount = 0;
-        blockedPawnCount = 0;
+    private void update() {
+        pawns[0] = board.pieceBitboard(W_PAWN);
+        pawns[1] = board.pieceBitboard(B_PAWN);
 
 
-        pawns[0] = board.bitboard(Piece.WHITE_PAWN);
-        pawns[1] = board.bitboard(Piece.BLACK_PAWN);
+        knights[0] = board.pieceBitboard(W_KNIGHT);
+        knights[1] = board.pieceBitboard(B_KNIGHT);
 
 
-        knights[0] = board.bitboard(Piece.WHITE_KNIGHT);
-        knights[1] = board.bitboard(Piece.BLACK_KNIGHT);
+        bishops[0] = board.pieceBitboard(W_BISHOP);
+        bishops[1] = board.pieceBitboard(B_BISHOP);
 
 
-        bishops[0] = board.bitboard(Piece.WHITE_BISHOP);
-        bishops[1] = board.bitboard(Piece.BLACK_BISHOP);
+        rooks[0] = board.pieceBitboard(W_ROOK);
+        rooks[1] = board.pieceBitboard(B_ROOK);
 
 
-        rooks[0] = board.bitboard(Piece.WHITE_ROOK);
-        rooks[1] = board.bitboard(Piece.BLACK_ROOK);
+        queens[0] = board.pieceBitboard(W_QUEEN);
+        queens[1] = board.pieceBitboard(B_QUEEN);
 
 
-        queens[0] = board.bitboard(Piece.WHITE_QUEEN);
-        queens[1] = board.bitboard(Piece.BLACK_QUEEN);
+        kings[0] = board.pieceBitboard(W_KING);
+        kings[1] = board.pieceBitboard(B_KING);
+    }
 
 
-        kings[0] = board.bitboard(Piece.WHITE_KING);
-        kings[1] = board.bitboard(Piece.BLACK_KING);
+    private final int[][] pieceCount = new int[2][6];
 
 
-        pieceCount = new int[][]{
-                {
-                    _int(board.pieceCount(Piece.WHITE_BISHOP) > 1), board.pieceCount(Piece.WHITE_PAWN), board.pieceCount(Piece.WHITE_KNIGHT),
-                    board.pieceCount(Piece.WHITE_BISHOP), board.pieceCount(Piece.WHITE_ROOK), board.pieceCount(Piece.WHITE_QUEEN),
-                },
-                {
-                    _int(board.pieceCount(Piece.BLACK_BISHOP) > 1), board.pieceCount(Piece.BLACK_PAWN), board.pieceCount(Piece.BLACK_KNIGHT),
-                    board.pieceCount(Piece.BLACK_BISHOP), board.pieceCount(Piece.BLACK_ROOK), board.pieceCount(Piece.BLACK_QUEEN)
-                }
-        };
-    }
+    public MaterialEntry material(Board board) {
+        // everything here depends only on the piece counts, tracing always recomputes
+        final long materialKey = board.materialKey();
+        materialEntry = materialTable.probe(materialKey);
+        if (materialEntry.key == materialKey && !trace.isTracing())
+            return materialEntry;
+
 
+        final int[] counts = board.pieceCount();
+        for (int side = WHITE; side <= BLACK; side++) {
+            pieceCount[side][0] = _int(counts[makePiece(side, BISHOP)] > 1);
+            for (int pt = PAWN; pt <= QUEEN; pt++)
+                pieceCount[side][pt + 1] = counts[makePiece(side, pt)];
+        }
+
+
+        int npmW = board.nonPawnMaterial(WHITE);
+        int npmB = board.nonPawnMaterial(BLACK);
+        int mgl = 15258;
+        int egl = 3915;
+        int npm = clamp(npmW + npmB, egl, mgl);
 
 
-    private static int[][] pieceCount = new int[2][6];
+        materialEntry.key = materialKey;
+        materialEntry.imbalance = imbalance();
+        materialEntry.phase = ((npm - egl) * 128) / (mgl - egl);
+        materialEntry.scaleFactor = counts[W_PAWN] == 0 && npmW - npmB <= mgValue(bishop)
+                                  ? (npmW < mgValue(rook) ? 0 : npmB <= mgValue(bishop) ? 4 : 14)
+                                  : 64;
+        materialEntry.insufficientMaterial = board.isInsufficientMaterial();
+        return materialEntry;
+    }
 
 
     private static final int[][] quadraticOurs = {
@@ -106,19 +147,19 @@ public class Evaluator {
     };
 
 
-    private static int imbalance(Side us) {
-        Side them = us.flip();
+    private int imbalance(int us) {
+        int them = us ^ 1;
         int bonus = 0;
 
 
         for (int pt1 = 0; pt1 <= 5; pt1++) {
-            if (pieceCount[us.ordinal()][pt1] == 0)
+            if (pieceCount[us][pt1] == 0)
                 continue;
-            int v = quadraticOurs[pt1][pt1] * pieceCount[us.ordinal()][pt1];
+            int v = quadraticOurs[pt1][pt1] * pieceCount[us][pt1];
             for (int pt2 = 0; pt2 < pt1; ++pt2)
-                v +=  quadraticOurs[pt1][pt2] * pieceCount[us.ordinal()][pt2]
-                    + quadraticTheirs[pt1][pt2] * pieceCount[them.ordinal()][pt2];
-            bonus += pieceCount[us.ordinal()][pt1] * v;
+                v +=  quadraticOurs[pt1][pt2] * pieceCount[us][pt2]
+                    + quadraticTheirs[pt1][pt2] * pieceCount[them][pt2];
+            bonus += pieceCount[us][pt1] * v;
         }
 
 
@@ -126,56 +167,61 @@ public class Evaluator {
     }
 
 
-    private static int imbalance() {
-        int imbalance = (short) (imbalance(Side.WHITE) - imbalance(Side.BLACK)) / 16;
-        if (isTracing())
-            set("Imbalance", 2, imbalance);
+    private int imbalance() {
+        int imbalance = (short) (imbalance(WHITE) - imbalance(BLACK)) / 16;
+        if (trace.isTracing())
+            trace.set("Imbalance", 2, imbalance);
         return imbalance;
     }
 
 
-    private static final long[] passedPawns = new long[2];
-    private static final long[] pawnAttackSpan = new long[2];
-    private static int passedPawnCount = 0;
-    private static int blockedPawnCount = 0;
+    private int pawns() {
+        // the pawn structure terms are cached by pawn key, tracing always recomputes them
+        final long pawnKey = board.pawnKey();
+        pawnEntry = pawnTable.probe(pawnKey);
+        if (pawnEntry.key != pawnKey || trace.isTracing()) {
+            pawnEntry.clear(pawnKey);
+            pawnEntry.score = pawnEvaluation(WHITE) - pawnEvaluation(BLACK);
+        }
+        return pawnEntry.score;
+    }
 
 
-    private static int pawnEvaluation(Side us) {
-        Side them = us.flip();
+    private int pawnEvaluation(int us) {
+        final int them = us ^ 1;
         int score = 0;
 
 
-        long dblAttackThem = doubleAttackPawn(them, pawns[them.ordinal()]);
-        long materials = pawns[us.ordinal()];
+        long dblAttackThem = doubleAttackPawn(them, pawns[them]);
+        long materials = pawns[us];
         long bb = 0L;
 
 
-        blockedPawnCount += Long.bitCount(shiftUp(us, pawns[us.ordinal()]) &
-                (pawns[them.ordinal()] | dblAttackThem));
-        pawnAttackSpan[us.ordinal()] = pseudoAttacks(us, PieceType.PAWN, pawns[us.ordinal()]);
+        pawnEntry.blockedPawnCount += Long.bitCount(shiftUp(us, pawns[us]) &
+                (pawns[them] | dblAttackThem));
+        pawnEntry.pawnAttackSpan[us] = pawnAttacks(us, pawns[us]);
 
 
         while (materials != 0L) {
-            int index = lsb(materials);
-            Square square = squareAt(index);
+            int square = lsb(materials);
             materials = extractLsb(materials);
 
 
-            int rank = relativeRank(us, square.rank()).ordinal();
-            long opposed = pawns[them.ordinal()] & forwardFileBB(us, square);
-            long blocked = pawns[them.ordinal()] & shiftUp(us, squareBB(index));
-            long stoppers = pawns[them.ordinal()] & passedMaskBB(us, square);
-            long lever = pawns[them.ordinal()] & pawnAttacks[us.ordinal()][index];
-            long leverPush = pawns[them.ordinal()] & pawnAttacks[us.ordinal()][(us.equals(Side.WHITE) ? index + 8 : index - 8)];
-            long doubled = pawns[us.ordinal()] & shiftDown(us, squareBB(index));
-            long neighbors = pawns[us.ordinal()] & adjacentFiles(square.file());
-            long phalanx = neighbors & rankBB(square);
-            long support = neighbors & shiftDown(us, rankBB(square));
+            int rank = relativeRank(us, square);
+            long opposed = pawns[them] & forwardFileBB(us, square);
+            long blocked = pawns[them] & shiftUp(us, squareBB(square));
+            long stoppers = pawns[them] & passedMaskBB(us, square);
+            long lever = pawns[them] & pawnAttacks[us][square];
+            long leverPush = pawns[them] & pawnAttacks[us][square + pawnPush(us)];
+            long doubled = pawns[us] & shiftDown(us, squareBB(square));
+            long neighbors = pawns[us] & adjacentFiles(fileOf(square));
+            long phalanx = neighbors & rankBB(rankOf(square));
+            long support = neighbors & shiftDown(us, rankBB(rankOf(square)));
 
 
             if (doubled != 0L) {
-                bb = pawns[them.ordinal()] | pseudoAttacks(them, PieceType.PAWN, pawns[them.ordinal()]);
-                if ((pawns[us.ordinal()] & shiftDown(us, bb)) == 0L)
+                bb = pawns[them] | pawnAttacks(them, pawns[them]);
+                if ((pawns[us] & shiftDown(us, bb)) == 0L)
                     score -= doubledEarly;
             }
 
@@ -185,21 +231,21 @@ public class Evaluator {
                             Long.bitCount(phalanx) >= Long.bitCount(leverPush)) ||
                     (stoppers == blocked &&
                             rank >= RANK_5.ordinal() &&
-                            (shiftUp(us, support) & ~(pawns[them.ordinal()] | dblAttackThem)) != 0L);
-            passed &= (forwardFileBB(us, square) & pawns[us.ordinal()]) == 0L;
+                            (shiftUp(us, support) & ~(pawns[them] | dblAttackThem)) != 0L);
+            passed &= (forwardFileBB(us, square) & pawns[us]) == 0L;
 
 
             if (passed) {
-                passedPawns[us.ordinal()] |= squareBB(index);
-                passedPawnCount++;
+                pawnEntry.passedPawns[us] |= squareBB(square);
+                pawnEntry.passedPawnCount++;
             }
 
 
-            boolean backward = (neighbors & forwardRankBB(them, squareAt((us.equals(Side.WHITE) ? index + 8 : index - 8)).rank())) == 0L &&
+            boolean backward = (neighbors & forwardRankBB(them, rankOf(square + pawnPush(us)))) == 0L &&
                     (leverPush | blocked) != 0L;
             if (!backward && blocked == 0L)
-                pawnAttackSpan[us.ordinal()] |= forwardRankBB(us, square.rank()) &
-                        adjacentFiles(square.file());
+                pawnEntry.pawnAttackSpan[us] |= forwardRankBB(us, rankOf(square)) &
+                        adjacentFiles(fileOf(square));
 
 
             if ((support | phalanx) != 0L) {
@@ -207,8 +253,8 @@ public class Evaluator {
                 score += S(v, v * (rank - 2) / 4);
             } else if (neighbors == 0L) {
                 if (opposed != 0L &&
-                        (pawns[us.ordinal()] & forwardFileBB(them, square)) != 0L &&
-                        (pawns[them.ordinal()] & adjacentFiles(square.file())) == 0L)
+                        (pawns[us] & forwardFileBB(them, square)) != 0L &&
+                        (pawns[them] & adjacentFiles(fileOf(square))) == 0L)
                     score -= ScoreConstants.doubled;
                 else
                     score -= isolated + weakUnopposed * _int(opposed == 0L);
@@ -227,8 +273,8 @@ public class Evaluator {
         }
 
 
-        if (isTracing())
-            set("Pawns", us.ordinal(), score);
+        if (trace.isTracing())
+            trace.set("Pawns", us, score);
 
 
         return score;
@@ -238,157 +284,160 @@ public class Evaluator {
     private static final int lazyThreshold1 = 1565;
     private static final int lazyThreshold2 = 1102;
     private static final int spaceThreshold = 11551;
-    private static boolean lazySkip(int score, int threshold) {
+    private boolean lazySkip(int score, int threshold) {
         return Math.abs(mgValue(score) + egValue(score)) <= threshold + board.nonPawnMaterial() / 32;
     }
 
 
-    private static final long[][] attackedBy = new long[2][7];
-    private static final long[] attackedBy2 = new long[2];
-    private static final long[] mobilityArea = new long[2];
-    private static final int[] mobilities = new int[2];
-    private static final long[] kingRing = new long[2];
-    private static final int[] kingAttackersCount = new int[2];
-    private static final int[] kingAttackersWeight = new int[2];
-    private static final int[] kingAttacksCount = new int[2];
+    private final long[][] attackedBy = new long[2][7];
+    private final long[] attackedBy2 = new long[2];
+    private final long[] mobilityArea = new long[2];
+    private final int[] mobilities = new int[2];
+    private final long[] kingRing = new long[2];
+    private final long[] kingBlockers = new long[2];
+    private final int[] kingAttackersCount = new int[2];
+    private final int[] kingAttackersWeight = new int[2];
+    private final int[] kingAttacksCount = new int[2];
 
 
-    private static void initialize(Side us) {
-        Side them = us.flip();
-        Square ksq = board.kingSquare(us);
+    private void initialize(int us) {
+        final int them = us ^ 1;
+        final int ksq = board.kingSquare(us);
 
 
-        long lowRanks = (us.equals(Side.WHITE)
+        long lowRanks = (us == WHITE
                        ? rankBB(RANK_2) | rankBB(RANK_3)
                        : rankBB(RANK_7) | rankBB(RANK_6));
-        long dblAttackPawn = doubleAttackPawn(us, pawns[us.ordinal()]);
-        long bb = pawns[us.ordinal()] & (shiftDown(us, board.bitboard()) | lowRanks);
-
-
-        mobilityArea[us.ordinal()] = ~(bb | (kings[us.ordinal()] | queens[us.ordinal()])
-                                    | board.sliderBlockers(ksq, board.bitboard(them))
-                                    | pseudoAttacks(them, PieceType.PAWN, pawns[them.ordinal()]));
-        attackedBy[us.ordinal()][5] = kingAttacks[ksq.ordinal()];
-        attackedBy[us.ordinal()][0] = pseudoAttacks(us, PieceType.PAWN, pawns[us.ordinal()]);
-        attackedBy[us.ordinal()][6] = attackedBy[us.ordinal()][5] | attackedBy[us.ordinal()][0];
-        attackedBy2[us.ordinal()] = dblAttackPawn | (attackedBy[us.ordinal()][5] & attackedBy[us.ordinal()][0]);
-        mobilities[us.ordinal()] = 0;
-
-
-        Square square = encodeSquare(rankAt(clamp(ksq.rank().ordinal(), RANK_2.ordinal(), RANK_7.ordinal())),
-                                     fileAt(clamp(ksq.file().ordinal(), FILE_B.ordinal(), FILE_G.ordinal())));
-        kingRing[us.ordinal()] = kingAttacks[ksq.ordinal()] | squareBB(square);
-        kingAttackersCount[them.ordinal()] = Long.bitCount(kingRing[us.ordinal()] & pseudoAttacks(them, PieceType.PAWN, pawns[them.ordinal()]));
-        kingAttackersWeight[them.ordinal()] = 0;
-        kingAttacksCount[them.ordinal()] = 0;
-        kingRing[us.ordinal()] &= ~dblAttackPawn;
+        long dblAttackPawn = doubleAttackPawn(us, pawns[us]);
+        long bb = pawns[us] & (shiftDown(us, board.bitboard()) | lowRanks);
+
+
+        // pieces shielding our king, used by mobility, pins and king danger
+        kingBlockers[us] = board.sliderBlockers(ksq, board.sideBitboard(them));
+        mobilityArea[us] = ~(bb | (kings[us] | queens[us])
+                           | kingBlockers[us]
+                           | board.attacks(them, PAWN));
+        // pawn and king attacks come straight from the board attack maps
+        attackedBy[us][5] = board.attacks(us, KING);
+        attackedBy[us][0] = board.attacks(us, PAWN);
+        attackedBy[us][6] = attackedBy[us][5] | attackedBy[us][0];
+        attackedBy2[us] = dblAttackPawn | (attackedBy[us][5] & attackedBy[us][0]);
+        mobilities[us] = 0;
+
+
+        int square = clamp(rankOf(ksq), RANK_2.ordinal(), RANK_7.ordinal()) * 8
+                   + clamp(fileOf(ksq), FILE_B.ordinal(), FILE_G.ordinal());
+        kingRing[us] = kingAttacks[ksq] | squareBB(square);
+        kingAttackersCount[them] = Long.bitCount(kingRing[us] & board.attacks(them, PAWN));
+        kingAttackersWeight[them] = 0;
+        kingAttacksCount[them] = 0;
+        kingRing[us] &= ~dblAttackPawn;
     }
 
 
-    private static int pieces(Side us, PieceType pt) {
-        Side them = us.flip();
-        Square ksq = board.kingSquare(us);
+    private int pieces(int us, int pt) {
+        final int them = us ^ 1;
+        final int ksq = board.kingSquare(us);
         int score = 0;
 
 
-        long materials = board.bitboard(Piece.encodePiece(us, pt));
-        attackedBy[us.ordinal()][pt.ordinal()] = 0L;
+        long materials = board.pieceBitboard(us, pt);
+        attackedBy[us][pt] = 0L;
 
 
         while (materials != 0L) {
-            int index = lsb(materials);
-            Square square = squareAt(index);
+            int square = lsb(materials);
             materials = extractLsb(materials);
 
 
-            long attacks = pt.equals(PieceType.BISHOP) ? bishopAttacks(square, board.bitboard() ^ (queens[0] | queens[1]))
-                    : pt.equals(PieceType.ROOK) ? rookAttacks(square, board.bitboard() ^ rooks[us.ordinal()] ^ (queens[0] | queens[1]))
-                    : pt.equals(PieceType.QUEEN) ? queenAttacks(square, board.bitboard())
-                    : pseudoAttacks(us, pt, square);
+            long attacks = pt == BISHOP ? bishopAttacks(square, board.bitboard() ^ (queens[0] | queens[1]))
+                    : pt == ROOK ? rookAttacks(square, board.bitboard() ^ rooks[us] ^ (queens[0] | queens[1]))
+                    : pt == QUEEN ? queenAttacks(square, board.bitboard())
+                    : knightAttacks[square];
 
 
             // piece is pinned, the only attacks are the ones that covers the king
-            if ((board.sliderBlockers(ksq, board.bitboard(them)) & squareBB(square)) != 0L)
-                attacks &= lineBB[ksq.ordinal()][square.ordinal()];
+            if ((kingBlockers[us] & squareBB(square)) != 0L)
+                attacks &= lineBB[ksq][square];
 
 
-            attackedBy2[us.ordinal()] |= attackedBy[us.ordinal()][6] & attacks;
-            attackedBy[us.ordinal()][pt.ordinal()] |= attacks;
-            attackedBy[us.ordinal()][6] |= attacks;
+            attackedBy2[us] |= attackedBy[us][6] & attacks;
+            attackedBy[us][pt] |= attacks;
+            attackedBy[us][6] |= attacks;
 
 
-            if ((attacks & kingRing[them.ordinal()]) != 0L) {
-                kingAttackersCount[us.ordinal()]++;
-                kingAttackersWeight[us.ordinal()] += kingAttackWeights[pt.ordinal()];
-                kingAttacksCount[us.ordinal()] += Long.bitCount(attacks & attackedBy[them.ordinal()][5]);
+            if ((attacks & kingRing[them]) != 0L) {
+                kingAttackersCount[us]++;
+                kingAttackersWeight[us] += kingAttackWeights[pt];
+                kingAttacksCount[us] += Long.bitCount(attacks & attackedBy[them][5]);
             }
-            else if (pt.equals(PieceType.ROOK) && (fileBB(square) & kingRing[them.ordinal()]) != 0L)
+            else if (pt == ROOK && (fileBB(fileOf(square)) & kingRing[them]) != 0L)
                 score += rookOnKingRing;
-            else if (pt.equals(PieceType.BISHOP) && (bishopAttacks(square, pawns[0] | pawns[1]) & kingRing[them.ordinal()]) != 0L)
+            else if (pt == BISHOP && (bishopAttacks(square, pawns[0] | pawns[1]) & kingRing[them]) != 0L)
                 score += bishopOnKingRing;
 
 
-            int mobility = Long.bitCount(attacks & mobilityArea[us.ordinal()]);
-            mobilities[us.ordinal()] += mobilityBonus[pt.ordinal() - 1][mobility];
+            int mobility = Long.bitCount(attacks & mobilityArea[us]);
+            mobilities[us] += mobilityBonus[pt - 1][mobility];
 
 
-            if (pt.equals(PieceType.KNIGHT) || pt.equals(PieceType.BISHOP)) {
-                long outpostRanks = (us.equals(Side.WHITE) ? (rankBB(RANK_4) | rankBB(RANK_5) | rankBB(RANK_6))
+            if (pt == KNIGHT || pt == BISHOP) {
+                long outpostRanks = (us == WHITE ? (rankBB(RANK_4) | rankBB(RANK_5) | rankBB(RANK_6))
                         : (rankBB(RANK_5) | rankBB(RANK_4) | rankBB(RANK_3)));
-                long bb = outpostRanks & (attackedBy[us.ordinal()][0] | shiftDown(us, pawns[0] | pawns[1])) & ~pawnAttackSpan[them.ordinal()];
-                long targets = board.bitboard(them) & ~pawns[them.ordinal()];
+                long bb = outpostRanks & (attackedBy[us][0] | shiftDown(us, pawns[0] | pawns[1])) & ~pawnEntry.pawnAttackSpan[them];
+                long targets = board.sideBitboard(them) & ~pawns[them];
 
 
-                if (pt.equals(PieceType.KNIGHT) &&
+                if (pt == KNIGHT &&
                         (bb & squareBB(square) & ~centerFiles) != 0L &&
                         (attacks & targets) == 0L &&
                         !moreThanOne(targets & ((squareBB(square) & queenSide) != 0L ? queenSide : kingSide)))
                     score += uncontestedOutpost * Long.bitCount((pawns[0] | pawns[1]) & ((squareBB(square) & queenSide) != 0L ? queenSide : kingSide));
                 else if ((bb & squareBB(square)) != 0L)
-                    score += outpost[_int(pt.equals(PieceType.BISHOP))];
-                else if (pt.equals(PieceType.KNIGHT) && (bb & attacks & ~board.bitboard(us)) != 0L)
+                    score += outpost[_int(pt == BISHOP)];
+                else if (pt == KNIGHT && (bb & attacks & ~board.sideBitboard(us)) != 0L)
                     score += reachableOutpost;
 
 
                 if ((shiftDown(us, pawns[0] | pawns[1]) & squareBB(square)) != 0L)
                     score += minorBehindPawn;
-                score -= kingProtector[_int(pt.equals(PieceType.BISHOP))] * ksq.distance(square);
+                score -= kingProtector[_int(pt == BISHOP)] * distance(ksq, square);
 
 
-                if (pt.equals(PieceType.BISHOP)) {
-                    long blocked = pawns[us.ordinal()] & shiftDown(us, board.bitboard());
-                    score -= bishopPawns[edgeDistance(square.file())] * board.piecesOnSameSquareColor(square, pawns[us.ordinal()])
-                            * (_int((attackedBy[us.ordinal()][0] & squareBB(square)) == 0L) + Long.bitCount(blocked & centerFiles));
-                    score -= bishopXRayPawns * Long.bitCount(bishopAttacks(square, 0L) & pawns[them.ordinal()]);
+                if (pt == BISHOP) {
+                    long blocked = pawns[us] & shiftDown(us, board.bitboard());
+                    score -= bishopPawns[edgeDistance(fileOf(square))] * board.piecesOnSameSquareColor(square, pawns[us])
+                            * (_int((attackedBy[us][0] & squareBB(square)) == 0L) + Long.bitCount(blocked & centerFiles));
+                    score -= bishopXRayPawns * Long.bitCount(bishopAttacks(square, 0L) & pawns[them]);
 
 
                     if (moreThanOne(bishopAttacks(square, pawns[0] | pawns[1]) & center))
                         score += longDiagonalBishop;
                 }
-            } else if (pt.equals(PieceType.ROOK)) {
+            } else if (pt == ROOK) {
                 if (board.semiOpenFile(us, square))
                     score += openFileRook[_int(board.semiOpenFile(them, square))];
                 else {
-                    if ((pawns[us.ordinal()] & shiftDown(us, board.bitboard()) & fileBB(square)) != 0L)
+                    if ((pawns[us] & shiftDown(us, board.bitboard()) & fileBB(fileOf(square))) != 0L)
                         score -= closedFileRook;
 
 
                     if (mobility <= 3) {
-                        int kf = ksq.file().ordinal();
-                        if ((kf < FILE_E.ordinal()) == (square.file().ordinal() < kf))
+                        int kf = fileOf(ksq);
+                        if ((kf < FILE_E.ordinal()) == (fileOf(square) < kf))
                             score -= trappedRook * (1 + _int(!board.hasCastlingRight(us)));
                     }
                 }
-            } else if (pt.equals(PieceType.QUEEN)) {
-                if (board.sliderBlockers(square, bishops[them.ordinal()] | rooks[them.ordinal()]) != 0L)
+            } else if (pt == QUEEN) {
+                if (board.sliderBlockers(square, bishops[them] | rooks[them]) != 0L)
                     score -= weakQueen;
             }
         }
 
 
-        if (isTracing()) {
-            String str = pt.toString().toLowerCase();
-            set(str.substring(0, 1).toUpperCase() + str.substring(1) + "s", us.ordinal(), score);
+        if (trace.isTracing()) {
+            String str = PieceType.allPieceTypes[pt].toString().toLowerCase();
+            trace.set(str.substring(0, 1).toUpperCase() + str.substring(1) + "s", us, score);
         }
 
 
@@ -396,27 +445,27 @@ public class Evaluator {
     }
 
 
-    private static int kingShelter(Side us, Square ksq) {
-        Side them = us.flip();
-        long bb = (pawns[0] | pawns[1]) & ~forwardRankBB(them, ksq.rank());
-        long ourPawns = bb & board.bitboard(us) & ~pseudoAttacks(them, PieceType.PAWN, pawns[them.ordinal()]);
-        long theirPawns = bb & board.bitboard(them);
+    private int kingShelter(int us, int ksq) {
+        final int them = us ^ 1;
+        long bb = (pawns[0] | pawns[1]) & ~forwardRankBB(them, rankOf(ksq));
+        long ourPawns = bb & board.sideBitboard(us) & ~pawnAttacks(them, pawns[them]);
+        long theirPawns = bb & board.sideBitboard(them);
 
 
         int bonus = S(5, 5);
-        int center = clamp(ksq.file().ordinal(), File.FILE_B.ordinal(), File.FILE_G.ordinal());
+        int center = clamp(fileOf(ksq), File.FILE_B.ordinal(), File.FILE_G.ordinal());
 
 
         for (int file = center - 1; file <= center + 1; file++) {
-            bb = ourPawns & fileBB(File.fileAt(file));
-            int ourRank = bb == 0L ? 0 : relativeRank(us, frontMostSquare(them, bb).rank()).ordinal();
+            bb = ourPawns & fileBB(file);
+            int ourRank = bb == 0L ? 0 : relativeRank(us, frontMostSquare(them, bb));
 
 
-            bb = theirPawns & fileBB(File.fileAt(file));
-            int theirRank = bb == 0L ? 0 : relativeRank(us, frontMostSquare(them, bb).rank()).ordinal();
+            bb = theirPawns & fileBB(file);
+            int theirRank = bb == 0L ? 0 : relativeRank(us, frontMostSquare(them, bb));
 
 
-            int distance = edgeDistance(File.fileAt(file));
+            int distance = edgeDistance(file);
             bonus += S(shelterStrength[distance][ourRank], 0);
 
 
@@ -432,27 +481,38 @@ public class Evaluator {
     }
 
 
-    private static int kingSafety(Side us) {
-        Square ksq = board.kingSquare(us);
+    private int kingSafety(int us) {
+        final int ksq = board.kingSquare(us);
+        int castlingRights = _int(board.hasKingCastlingRight(us)) | _int(board.hasQueenCastlingRight(us)) << 1;
+        if (pawnEntry.kingSquares[us] != ksq || pawnEntry.castlingRights[us] != castlingRights) {
+            pawnEntry.kingSquares[us] = ksq;
+            pawnEntry.castlingRights[us] = castlingRights;
+            pawnEntry.kingSafety[us] = kingSafety(us, ksq);
+        }
+        return pawnEntry.kingSafety[us];
+    }
+
+
+    private int kingSafety(int us, int ksq) {
         int shelter = kingShelter(us, ksq);
         long bb = 0L;
 
 
         if (board.hasKingCastlingRight(us))
-            shelter = max(shelter, kingShelter(us, relativeSquare(us, G1)));
+            shelter = max(shelter, kingShelter(us, relativeSquare(us, G1.ordinal())));
         if (board.hasQueenCastlingRight(us))
-            shelter = max(shelter, kingShelter(us, relativeSquare(us, C1)));
+            shelter = max(shelter, kingShelter(us, relativeSquare(us, C1.ordinal())));
 
 
         int minPawnDistance = 6;
-        if ((pawns[us.ordinal()] & kingAttacks[ksq.ordinal()]) != 0L)
+        if ((pawns[us] & kingAttacks[ksq]) != 0L)
             minPawnDistance = 1;
         else {
-            bb = pawns[us.ordinal()];
+            bb = pawns[us];
             while (bb != 0L) {
-                Square square = Square.squareAt(lsb(bb));
+                int square = lsb(bb);
                 bb = extractLsb(bb);
-                minPawnDistance = Math.min(minPawnDistance, ksq.distance(square));
+                minPawnDistance = Math.min(minPawnDistance, distance(ksq, square));
             }
         }
 
@@ -461,71 +521,71 @@ public class Evaluator {
     }
 
 
-    private static int king(Side us) {
-        Side them = us.flip();
-        Square ksq = board.kingSquare(us);
+    private int king(int us) {
+        final int them = us ^ 1;
+        final int ksq = board.kingSquare(us);
         int score = kingSafety(us);
         int kingDanger = 0;
 
 
         long unsafeChecks = 0L;
-        long weak = attackedBy[them.ordinal()][6] & ~attackedBy2[us.ordinal()]
-                & (~attackedBy[us.ordinal()][6] | attackedBy[us.ordinal()][5] | attackedBy[us.ordinal()][4]);
-        long safe = ~board.bitboard(them);
-        safe &= ~attackedBy[us.ordinal()][6] | (weak & attackedBy2[them.ordinal()]);
+        long weak = attackedBy[them][6] & ~attackedBy2[us]
+                & (~attackedBy[us][6] | attackedBy[us][5] | attackedBy[us][4]);
+        long safe = ~board.sideBitboard(them);
+        safe &= ~attackedBy[us][6] | (weak & attackedBy2[them]);
 
 
-        long rookAttacks = rookAttacks(ksq, board.bitboard() ^ queens[us.ordinal()]);
-        long bishopAttacks = bishopAttacks(ksq, board.bitboard() ^ queens[us.ordinal()]);
+        long rookAttacks = rookAttacks(ksq, board.bitboard() ^ queens[us]);
+        long bishopAttacks = bishopAttacks(ksq, board.bitboard() ^ queens[us]);
 
 
-        long rookChecks = rookAttacks & attackedBy[them.ordinal()][3] & safe;
+        long rookChecks = rookAttacks & attackedBy[them][3] & safe;
         if (rookChecks != 0L)
             kingDanger += safeCheck[2][_int(moreThanOne(rookChecks))];
         else
-            unsafeChecks |= rookAttacks & attackedBy[them.ordinal()][3];
+            unsafeChecks |= rookAttacks & attackedBy[them][3];
 
 
-        long queenChecks = (rookAttacks | bishopAttacks) & attackedBy[them.ordinal()][4] & safe
-                        & ~(attackedBy[us.ordinal()][4] | rookChecks);
+        long queenChecks = (rookAttacks | bishopAttacks) & attackedBy[them][4] & safe
+                        & ~(attackedBy[us][4] | rookChecks);
         if (queenChecks != 0L)
             kingDanger += safeCheck[3][_int(moreThanOne(queenChecks))];
 
 
-        long bishopChecks = bishopAttacks & attackedBy[them.ordinal()][2] & safe & ~queenChecks;
+        long bishopChecks = bishopAttacks & attackedBy[them][2] & safe & ~queenChecks;
         if (bishopChecks != 0L)
             kingDanger += safeCheck[1][_int(moreThanOne(bishopChecks))];
         else
-            unsafeChecks |= bishopAttacks & attackedBy[them.ordinal()][2];
+            unsafeChecks |= bishopAttacks & attackedBy[them][2];
 
 
-        long knightChecks = knightAttacks[ksq.ordinal()] & attackedBy[them.ordinal()][1];
+        long knightChecks = knightAttacks[ksq] & attackedBy[them][1];
         if ((knightChecks & safe) != 0L)
             kingDanger += safeCheck[0][_int(moreThanOne(knightChecks & safe))];
         else
             unsafeChecks |= knightChecks;
 
 
-        long camp = (us.equals(Side.WHITE) ? ~0L ^ rankBB(RANK_6) ^ rankBB(RANK_7) ^ rankBB(RANK_8)
-                                           : ~0L ^ rankBB(RANK_3) ^ rankBB(RANK_2) ^ rankBB(RANK_1));
-        long a = attackedBy[them.ordinal()][6] & kingFlank[ksq.file().ordinal()] & camp;
-        long b = a & attackedBy2[them.ordinal()];
-        long c = attackedBy[us.ordinal()][6] & kingFlank[ksq.file().ordinal()] & camp;
+        long camp = (us == WHITE ? ~0L ^ rankBB(RANK_6) ^ rankBB(RANK_7) ^ rankBB(RANK_8)
+                                 : ~0L ^ rankBB(RANK_3) ^ rankBB(RANK_2) ^ rankBB(RANK_1));
+        long a = attackedBy[them][6] & kingFlank[fileOf(ksq)] & camp;
+        long b = a & attackedBy2[them];
+        long c = attackedBy[us][6] & kingFlank[fileOf(ksq)] & camp;
 
 
         int kingFlankAttack = Long.bitCount(a) + Long.bitCount(b);
         int kingFlankDefense = Long.bitCount(c);
 
 
-        kingDanger += kingAttackersCount[them.ordinal()] * kingAttackersWeight[them.ordinal()]
-                    + 183 * Long.bitCount(kingRing[us.ordinal()] & weak)
+        kingDanger += kingAttackersCount[them] * kingAttackersWeight[them]
+                    + 183 * Long.bitCount(kingRing[us] & weak)
                     + 148 * Long.bitCount(unsafeChecks)
-                    + 98 * Long.bitCount(board.sliderBlockers(ksq, board.bitboard(them)))
-                    + 69 * kingAttacksCount[them.ordinal()]
+                    + 98 * Long.bitCount(kingBlockers[us])
+                    + 69 * kingAttacksCount[them]
                     + 3 * kingFlankAttack * kingFlankAttack / 8
-                    + mgValue(mobilities[them.ordinal()] - mobilities[us.ordinal()])
-                    - 873 * _int(Long.bitCount(queens[them.ordinal()]) == 0)
-                    - 100 * _int((attackedBy[us.ordinal()][1] & attackedBy[us.ordinal()][5]) != 0L)
+                    + mgValue(mobilities[them] - mobilities[us])
+                    - 873 * _int(Long.bitCount(queens[them]) == 0)
+                    - 100 * _int((attackedBy[us][1] & attackedBy[us][5]) != 0L)
                     - 6 * mgValue(score) / 8
                     - 4 * kingFlankDefense
                     + 37;
@@ -536,76 +596,75 @@ public class Evaluator {
 
 
         score -= flankAttacks * kingFlankAttack;
-        if (((pawns[0] | pawns[1]) & kingFlank[ksq.file().ordinal()]) == 0L)
+        if (((pawns[0] | pawns[1]) & kingFlank[fileOf(ksq)]) == 0L)
             score -= pawnlessFlank;
 
 
-        if(isTracing())
-            set("King", us.ordinal(), score);
+        if(trace.isTracing())
+            trace.set("King", us, score);
 
 
         return score;
     }
 
 
-    private static int kingProximity(Side side, Square square) {
-        return Math.min(board.kingSquare(side).distance(square), 5);
+    private int kingProximity(int side, int square) {
+        return Math.min(distance(board.kingSquare(side), square), 5);
     }
 
 
-    private static int passed(Side us) {
-        Side them = us.flip();
-        long materials = passedPawns[us.ordinal()];
+    private int passed(int us) {
+        final int them = us ^ 1;
+        long materials = pawnEntry.passedPawns[us];
         long bb = 0L;
         int score = 0;
 
 
-        long blockedPassers = materials & shiftDown(us, pawns[them.ordinal()]);
+        long blockedPassers = materials & shiftDown(us, pawns[them]);
         if (blockedPassers != 0L) {
-            long helpers = shiftUp(us, pawns[us.ordinal()]) & ~board.bitboard(them) &
-                    (~attackedBy2[them.ordinal()] | attackedBy[us.ordinal()][6]);
+            long helpers = shiftUp(us, pawns[us]) & ~board.sideBitboard(them) &
+                    (~attackedBy2[them] | attackedBy[us][6]);
             materials &= ~blockedPassers | ((helpers & ~fileBB(FILE_A)) >> 1) | ((helpers & ~fileBB(FILE_H)) << 1);
         }
 
 
         while (materials != 0L) {
-            int index = lsb(materials);
+            int square = lsb(materials);
             materials = extractLsb(materials);
-            Square square = Square.squareAt(index);
 
 
-            int rank = relativeRank(us, square.rank()).ordinal();
+            int rank = relativeRank(us, square);
             int bonus = passedRank[rank];
 
 
             if (rank > Rank.RANK_3.ordinal()) {
                 int w = 5 * rank - 13;
-                Square blockSquare = Square.squareAt((us.equals(Side.WHITE) ? square.ordinal() + 8 : square.ordinal() - 8));
+                int blockSquare = square + pawnPush(us);
                 bonus += S(0, (kingProximity(them, blockSquare) * 19 / 4 - kingProximity(us, blockSquare) * 2) * w);
 
 
                 if (rank != Rank.RANK_7.ordinal())
-                    bonus -= S(0, kingProximity(us, Square.squareAt((us.equals(Side.WHITE) ? blockSquare.ordinal() + 8 : blockSquare.ordinal() - 8))) * w);
+                    bonus -= S(0, kingProximity(us, blockSquare + pawnPush(us)) * w);
 
 
-                if (board.pieceAt(square).equals(Piece.NONE)) {
+                if (board.pieceOn(square) == NO_PIECE) {
                     long squaresToQueen = forwardFileBB(us, square);
                     long unsafeSquares = passedMaskBB(us, square);
                     bb = forwardFileBB(them, square) & ((rooks[0] | rooks[1]) | (queens[0] | queens[1]));
 
 
-                    if ((board.bitboard(them) & bb) == 0L)
-                        unsafeSquares &= attackedBy[them.ordinal()][6] | board.bitboard(them);
+                    if ((board.sideBitboard(them) & bb) == 0L)
+                        unsafeSquares &= attackedBy[them][6] | board.sideBitboard(them);
 
 
                     int k = unsafeSquares == 0L ? 36 :
-                            (unsafeSquares & ~attackedBy[us.ordinal()][0]) == 0L ? 30 :
+                            (unsafeSquares & ~attackedBy[us][0]) == 0L ? 30 :
                                     (unsafeSquares & squaresToQueen) == 0L ? 17 :
-                                            (unsafeSquares & squareBB(index)) == 0L ? 7 :
+                                            (unsafeSquares & squareBB(square)) == 0L ? 7 :
                                                     0;
 
 
-                    if ((board.bitboard(us) & bb) != 0L || (attackedBy[us.ordinal()][6] & squareBB(index)) != 0L)
+                    if ((board.sideBitboard(us) & bb) != 0L || (attackedBy[us][6] & squareBB(square)) != 0L)
                         k += 5;
 
 
@@ -614,164 +673,165 @@ public class Evaluator {
             }
 
 
-            score += bonus - passedFile * edgeDistance(square.file());
+            score += bonus - passedFile * edgeDistance(fileOf(square));
         }
 
 
-        if (isTracing())
-            set("Passed", us.ordinal(), score);
+        if (trace.isTracing())
+            trace.set("Passed", us, score);
 
 
         return score;
     }
 
 
-    private static int threats(Side us) {
-        Side them = us.flip();
+    private int threats(int us) {
+        final int them = us ^ 1;
         int score = 0;
 
 
         long bb = 0L;
-        long nonPawnEnemies = board.bitboard(them) & ~pawns[them.ordinal()];
-        long strong = attackedBy[them.ordinal()][0] | (attackedBy2[them.ordinal()] & ~attackedBy2[us.ordinal()]);
+        long nonPawnEnemies = board.sideBitboard(them) & ~pawns[them];
+        long strong = attackedBy[them][0] | (attackedBy2[them] & ~attackedBy2[us]);
         long defended = nonPawnEnemies & strong;
-        long weak = board.bitboard(them) & ~strong & attackedBy[us.ordinal()][6];
+        long weak = board.sideBitboard(them) & ~strong & attackedBy[us][6];
 
 
         if ((defended | weak) != 0L) {
-            bb = (defended | weak) & (attackedBy[us.ordinal()][1] | attackedBy[us.ordinal()][2]);
+            bb = (defended | weak) & (attackedBy[us][1] | attackedBy[us][2]);
             while (bb != 0L) {
-                int index = lsb(bb);
+                int square = lsb(bb);
                 bb = extractLsb(bb);
-                score += threatByMinor[board.pieceAt(squareAt(index)).pieceType().ordinal()];
+                score += threatByMinor[typeOf(board.pieceOn(square))];
             }
 
 
-            bb = weak & attackedBy[us.ordinal()][3];
+            bb = weak & attackedBy[us][3];
             while (bb != 0L) {
-                int index = lsb(bb);
+                int square = lsb(bb);
                 bb = extractLsb(bb);
-                score += threatByRook[board.pieceAt(squareAt(index)).pieceType().ordinal()];
+                score += threatByRook[typeOf(board.pieceOn(square))];
             }
 
 
-            if ((weak & attackedBy[us.ordinal()][5]) != 0L)
+            if ((weak & attackedBy[us][5]) != 0L)
                 score += threatByKing;
 
 
-            bb = ~attackedBy[them.ordinal()][6] | (nonPawnEnemies & attackedBy2[us.ordinal()]);
+            bb = ~attackedBy[them][6] | (nonPawnEnemies & attackedBy2[us]);
             score += hanging * Long.bitCount(weak & bb);
-            score += weakQueenProtection * Long.bitCount(weak & attackedBy[them.ordinal()][4]);
+            score += weakQueenProtection * Long.bitCount(weak & attackedBy[them][4]);
         }
 
 
-        bb = attackedBy[them.ordinal()][6] & ~strong & attackedBy[us.ordinal()][6];
+        bb = attackedBy[them][6] & ~strong & attackedBy[us][6];
         score += restrictedPiece * Long.bitCount(bb);
 
 
-        long safe = ~attackedBy[them.ordinal()][6] | attackedBy[us.ordinal()][6];
-        bb = pawns[us.ordinal()] & safe;
-        bb = pseudoAttacks(us, PieceType.PAWN, bb) & nonPawnEnemies;
+        long safe = ~attackedBy[them][6] | attackedBy[us][6];
+        bb = pawns[us] & safe;
+        bb = pawnAttacks(us, bb) & nonPawnEnemies;
         score += threatBySafePawn * Long.bitCount(bb);
 
 
-        long TRank3 = bb & (us.equals(Side.WHITE) ? rankBB(RANK_3) : rankBB(RANK_6));
-        bb = shiftUp(us, pawns[us.ordinal()]) & ~board.bitboard();
+        long TRank3 = bb & (us == WHITE ? rankBB(RANK_3) : rankBB(RANK_6));
+        bb = shiftUp(us, pawns[us]) & ~board.bitboard();
         bb |= shiftUp(us, bb & TRank3) & ~board.bitboard();
-        bb &= ~attackedBy[them.ordinal()][0] & safe;
-        bb = pseudoAttacks(us, PieceType.PAWN, bb) & nonPawnEnemies;
+        bb &= ~attackedBy[them][0] & safe;
+        bb = pawnAttacks(us, bb) & nonPawnEnemies;
         score += threatByPawnPush * Long.bitCount(bb);
 
 
-        if (Long.bitCount(queens[them.ordinal()]) == 1) {
-            boolean queenImbalance = board.pieceCount(Piece.WHITE_QUEEN) + board.pieceCount(Piece.BLACK_QUEEN) == 1;
-            Square square = squareAt(lsb(queens[them.ordinal()]));
+        if (Long.bitCount(queens[them]) == 1) {
+            boolean queenImbalance = Long.bitCount(board.typeBitboard(QUEEN)) == 1;
+            int square = lsb(queens[them]);
 
 
-            safe = mobilityArea[us.ordinal()] & ~pawns[us.ordinal()] & ~strong;
-            bb = attackedBy[us.ordinal()][1] & knightAttacks[square.ordinal()];
+            safe = mobilityArea[us] & ~pawns[us] & ~strong;
+            bb = attackedBy[us][1] & knightAttacks[square];
             score += knightOnQueen * Long.bitCount(bb & safe) * (1 + _int(queenImbalance));
 
 
-            bb = (attackedBy[us.ordinal()][2] & bishopAttacks(square, board.bitboard()) |
-                    (attackedBy[us.ordinal()][3] & rookAttacks(square, board.bitboard())));
-            score += sliderOnQueen * Long.bitCount(bb & safe & attackedBy2[us.ordinal()])
+            bb = (attackedBy[us][2] & bishopAttacks(square, board.bitboard()) |
+                    (attackedBy[us][3] & rookAttacks(square, board.bitboard())));
+            score += sliderOnQueen * Long.bitCount(bb & safe & attackedBy2[us])
                     * (1 + _int(queenImbalance));
         }
 
 
-        if (isTracing())
-            set("Threats", us.ordinal(), score);
+        if (trace.isTracing())
+            trace.set("Threats", us, score);
 
 
         return score;
     }
 
 
-    private static int space(Side us) {
+    private int space(int us) {
         if (board.nonPawnMaterial() < spaceThreshold)
             return 0;
 
 
-        Side them = us.flip();
-        long spaceMask = (us.equals(Side.WHITE) ? centerFiles & (rankBB(RANK_2) | rankBB(RANK_3) | rankBB(RANK_4))
-                                                : centerFiles & (rankBB(RANK_7) | rankBB(RANK_6) | rankBB(RANK_5)));
+        final int them = us ^ 1;
+        long spaceMask = (us == WHITE ? centerFiles & (rankBB(RANK_2) | rankBB(RANK_3) | rankBB(RANK_4))
+                                      : centerFiles & (rankBB(RANK_7) | rankBB(RANK_6) | rankBB(RANK_5)));
 
 
-        long safe = spaceMask & ~pawns[us.ordinal()] & ~attackedBy[them.ordinal()][0];
-        long behind = pawns[us.ordinal()];
+        long safe = spaceMask & ~pawns[us] & ~attackedBy[them][0];
+        long behind = pawns[us];
         behind |= shiftDown(us, behind);
         behind |= shiftDown(us, shiftDown(us, behind));
 
 
-        int bonus = Long.bitCount(safe) + Long.bitCount(behind & safe & ~attackedBy[them.ordinal()][6]);
-        int weight = Long.bitCount(board.bitboard(us)) - 3 + Math.min(blockedPawnCount, 9);
+        int bonus = Long.bitCount(safe) + Long.bitCount(behind & safe & ~attackedBy[them][6]);
+        int weight = Long.bitCount(board.sideBitboard(us)) - 3 + Math.min(pawnEntry.blockedPawnCount, 9);
         int score = S(bonus * weight * weight / 16, 0);
 
 
-        if (isTracing())
-            set("Space", us.ordinal(), score);
+        if (trace.isTracing())
+            trace.set("Space", us, score);
 
 
         return score;
     }
 
 
-    private static int forceMate(Side us) {
-        Side them = us.flip();
+    private int forceMate(int us) {
+        int them = us ^ 1;
         int score = 0;
 
 
-        Square enemySquare = board.kingSquare(them);
-        int enemyFile = enemySquare.file().ordinal();
-        int enemyRank = enemySquare.rank().ordinal();
+        int enemySquare = board.kingSquare(them);
+        int enemyFile = fileOf(enemySquare);
+        int enemyRank = rankOf(enemySquare);
         int dstToCenterFile = Math.max(3 - enemyFile, enemyFile - 4);
         int dstToCenterRank = Math.max(3 - enemyRank, enemyRank - 4);
         score += dstToCenterFile + dstToCenterRank;
 
 
-        Square allySquare = board.kingSquare();
-        int allyFile = allySquare.file().ordinal();
-        int allyRank = allySquare.rank().ordinal();
+        int allySquare = board.kingSquare(board.sideToMoveIndex());
+        int allyFile = fileOf(allySquare);
+        int allyRank = rankOf(allySquare);
         int dstBetweenKingsFile = Math.abs(allyFile - enemyFile);
         int dstBetweenKingsRank = Math.abs(allyRank - enemyRank);
         score += 14 - (dstBetweenKingsFile + dstBetweenKingsRank);
-        score += 8 - Long.bitCount(kingAttacks[enemySquare.ordinal()] & ~(board.bitboard(them) | attackedBy[us.ordinal()][6]));
+        // the board's attack map, attackedBy is not filled in when the lazy evaluation stops early
+        score += 8 - Long.bitCount(kingAttacks[enemySquare] & ~(board.sideBitboard(them) | board.attacks(us)));
 
 
         return score;
     }
 
 
-    private static int winnable(int score) {
+    private int winnable(int score) {
         int mg = mgValue(score);
         int eg = egValue(score);
 
 
         if (eg != 0) {
-            Side strongSide = eg > 0 ? Side.WHITE : Side.BLACK;
-            int npmStrong = strongSide.equals(Side.WHITE) ? board.nonPawnMaterial(Side.WHITE) : board.nonPawnMaterial(Side.BLACK);
-            int npmWeak = strongSide.equals(Side.WHITE) ? board.nonPawnMaterial(Side.BLACK) : board.nonPawnMaterial(Side.WHITE);
+            int strongSide = eg > 0 ? WHITE : BLACK;
+            int npmStrong = board.nonPawnMaterial(strongSide);
+            int npmWeak = board.nonPawnMaterial(strongSide ^ 1);
 
 
             if (npmStrong >= mgValue(knight) * 2 && npmWeak == 0) {
@@ -782,13 +842,13 @@ public class Evaluator {
         }
 
 
-        int outflanking = board.kingSquare(Side.WHITE).file().distance(board.kingSquare(Side.BLACK).file())
-                + (board.kingSquare(Side.WHITE).rank().ordinal() - board.kingSquare(Side.BLACK).rank().ordinal());
+        int whiteKing = board.kingSquare(WHITE);
+        int blackKing = board.kingSquare(BLACK);
+        int outflanking = Math.abs(fileOf(whiteKing) - fileOf(blackKing)) + (rankOf(whiteKing) - rankOf(blackKing));
         int pawnsOnBothFlanks = _int(((pawns[0] | pawns[1]) & queenSide) != 0L && ((pawns[0] | pawns[1]) & kingSide) != 0L);
         int almostUnwinnable = _int(outflanking < 0 && pawnsOnBothFlanks == 0);
-        int infiltration = _int(board.kingSquare(Side.WHITE).rank().ordinal() > RANK_4.ordinal() ||
-                board.kingSquare(Side.BLACK).rank().ordinal() < RANK_5.ordinal());
-        int complexity = 9 * passedPawnCount
+        int infiltration = _int(rankOf(whiteKing) > RANK_4.ordinal() || rankOf(blackKing) < RANK_5.ordinal());
+        int complexity = 9 * pawnEntry.passedPawnCount
                 + 12 * Long.bitCount(pawns[0] | pawns[1])
                 + 9 * outflanking
                 + 21 * pawnsOnBothFlanks
@@ -806,51 +866,45 @@ public class Evaluator {
         eg += v;
 
 
-        Side strongSide = eg > 0 ? Side.WHITE : Side.BLACK;
-        int npmW = board.nonPawnMaterial(Side.WHITE);
-        int npmB = board.nonPawnMaterial(Side.BLACK);
-        int SF = 64;
-
-
-        if (Long.bitCount(pawns[0]) == 0 && npmW - npmB <= mgValue(bishop))
-            SF = npmW < mgValue(rook) ? 0 : npmB <= mgValue(bishop) ? 4 : 14;
+        int strongSide = eg > 0 ? WHITE : BLACK;
+        int weakSide = strongSide ^ 1;
+        int npmW = board.nonPawnMaterial(WHITE);
+        int npmB = board.nonPawnMaterial(BLACK);
+        int SF = materialEntry.scaleFactor;
 
 
         if (SF == 64) {
             if (Long.bitCount(bishops[0]) == 1 && Long.bitCount(bishops[1]) == 1) {
-                boolean oppositeBishops = board.piecesOnSameSquareColor(squareAt(lsb(bishops[0])), bishops[1]) == 0;
+                boolean oppositeBishops = board.piecesOnSameSquareColor(lsb(bishops[0]), bishops[1]) == 0;
                 if (oppositeBishops) {
                     if (npmW == mgValue(bishop) && npmB == mgValue(bishop))
-                        SF = 18 + 4 * Long.bitCount(passedPawns[strongSide.ordinal()]);
+                        SF = 18 + 4 * Long.bitCount(pawnEntry.passedPawns[strongSide]);
                     else
-                        SF = 22 + 3 * Long.bitCount(board.bitboard(strongSide));
+                        SF = 22 + 3 * Long.bitCount(board.sideBitboard(strongSide));
                 } else if (npmW == mgValue(rook) &&
                         npmB == mgValue(rook) &&
-                        Long.bitCount(pawns[strongSide.ordinal()]) - Long.bitCount(pawns[strongSide.flip().ordinal()]) <= 1 &&
-                        ((kingSide & pawns[strongSide.ordinal()]) == 0L) == ((queenSide & pawns[strongSide.ordinal()]) != 0L) &&
-                        (kingAttacks[board.kingSquare(strongSide.flip()).ordinal()] & pawns[strongSide.flip().ordinal()]) != 0L)
+                        Long.bitCount(pawns[strongSide]) - Long.bitCount(pawns[weakSide]) <= 1 &&
+                        ((kingSide & pawns[strongSide]) == 0L) == ((queenSide & pawns[strongSide]) != 0L) &&
+                        (kingAttacks[board.kingSquare(weakSide)] & pawns[weakSide]) != 0L)
                     SF = 36;
                 else if (Long.bitCount(queens[0] | queens[1]) == 1)
                     SF = 37 + 3 * (Long.bitCount(queens[0]) == 1 ?
                             Long.bitCount(bishops[1]) + Long.bitCount(knights[1]) :
                             Long.bitCount(bishops[0]) + Long.bitCount(knights[0]));
                 else
-                    SF = Math.min(SF, 36 + 7 * Long.bitCount(pawns[strongSide.ordinal()]) - 4 * _int(pawnsOnBothFlanks == 0));
+                    SF = Math.min(SF, 36 + 7 * Long.bitCount(pawns[strongSide]) - 4 * _int(pawnsOnBothFlanks == 0));
                 SF -= 4 * _int(pawnsOnBothFlanks == 0);
             }
         }
 
 
-        int mgl = 15258;
-        int egl = 3915;
-        int npm = clamp(board.nonPawnMaterial(), egl, mgl);
-        int phase = ((npm - egl) * 128) / (mgl - egl);
+        int phase = materialEntry.phase;
         int value = (mg * phase + eg * (128 - phase * SF / 64)) / 128;
 
 
-        if (isTracing()) {
-            set("Winnable", 2, S(u, eg * SF / 64 - egValue(score)));
-            set("Total", 2, S(mg, eg * SF / 64));
+        if (trace.isTracing()) {
+            trace.set("Winnable", 2, S(u, eg * SF / 64 - egValue(score)));
+            trace.set("Total", 2, S(mg, eg * SF / 64));
         }
 
 
@@ -858,60 +912,75 @@ public class Evaluator {
     }
 
 
-    public static int evaluate(Board board) {
-        Evaluator.board = board;
+    public int evaluate(Board board) {
+        // the cache keeps the value before fifty move scaling, which the hash key does not cover
+        this.board = board;
+        int value;
+        cacheProbes++;
+        long data = trace.isTracing() ? 0L : evalCache.probe(board.hashKey());
+        if (data != 0L) {
+            cacheHits++;
+            value = (int) data;
+        } else {
+            value = evaluate();
+            evalCache.store(board.hashKey(), value);
+        }
+        return value * (100 - board.fiftyMove()) / 100;
+    }
+
+
+    private int evaluate() {
         update();
         int score = board.psqScore();
-        score += imbalance();
-        score += pawnEvaluation(Side.WHITE) - pawnEvaluation(Side.BLACK);
+        score += material(board).imbalance;
+        score += pawns();
 
 
-        if (lazySkip(score, lazyThreshold1) || isTracing()) {
-            initialize(Side.WHITE);
-            initialize(Side.BLACK);
+        if (lazySkip(score, lazyThreshold1) || trace.isTracing()) {
+            initialize(WHITE);
+            initialize(BLACK);
 
 
-            score += pieces(Side.WHITE, PieceType.KNIGHT) - pieces(Side.BLACK, PieceType.KNIGHT)
-                   + pieces(Side.WHITE, PieceType.BISHOP) - pieces(Side.BLACK, PieceType.BISHOP)
-                   + pieces(Side.WHITE, PieceType.ROOK) - pieces(Side.BLACK, PieceType.ROOK)
-                   + pieces(Side.WHITE, PieceType.QUEEN) - pieces(Side.BLACK, PieceType.QUEEN);
+            score += pieces(WHITE, KNIGHT) - pieces(BLACK, KNIGHT)
+                   + pieces(WHITE, BISHOP) - pieces(BLACK, BISHOP)
+                   + pieces(WHITE, ROOK) - pieces(BLACK, ROOK)
+                   + pieces(WHITE, QUEEN) - pieces(BLACK, QUEEN);
 
 
             score += mobilities[0] - mobilities[1];
-            score += king(Side.WHITE) - king(Side.BLACK);
-            score += passed(Side.WHITE) - passed(Side.BLACK);
+            score += king(WHITE) - king(BLACK);
+            score += passed(WHITE) - passed(BLACK);
 
 
-            if (lazySkip(score, lazyThreshold2) | isTracing()) {
-                score += threats(Side.WHITE) - threats(Side.BLACK);
-                score += space(Side.WHITE) - space(Side.BLACK);
+            if (lazySkip(score, lazyThreshold2) | trace.isTracing()) {
+                score += threats(WHITE) - threats(BLACK);
+                score += space(WHITE) - space(BLACK);
             }
         }
 
 
-        if (isTracing()) {
-            set("Material", 2, board.psqScore());
-            set("Mobility", 0, mobilities[0]);
-            set("Mobility", 1, mobilities[1]);
+        if (trace.isTracing()) {
+            trace.set("Material", 2, board.psqScore());
+            trace.set("Mobility", 0, mobilities[0]);
+            trace.set("Mobility", 1, mobilities[1]);
         }
 
 
         int value = winnable(score);
         value = (value / 16) * 16;
-        value += (board.sideToMove().equals(Side.WHITE) ? 28 : -28);
-        value = (board.sideToMove().equals(Side.WHITE) ? value : -value);
-        value = value * (100 - board.fiftyMove()) / 100;
+        value += (board.sideToMoveIndex() == WHITE ? 28 : -28);
+        value = (board.sideToMoveIndex() == WHITE ? value : -value);
         return value;
     }
 
 
-    public static void trace(Board board) {
-        startTracing();
+    public void trace(Board board) {
+        trace.startTracing();
         double eval = evaluate(board) / (double) Score.egValue(ScoreConstants.pawn);
-        endTracing();
-        printTrace();
-        clear();
-        System.out.printf("Evaluation: %.2f (white side)", (board.sideToMove().equals(Side.WHITE) ? eval : -eval));
+        trace.endTracing();
+        trace.printTrace();
+        trace.clear();
+        System.out.printf("Evaluation: %.2f (white side)", (board.sideToMoveIndex() == WHITE ? eval : -eval));
         System.out.println();
     }
 
@@ -41,7 +41,10 @@ public enum File {
         return allFiles[file.ordinal() ^ (side.ordinal() * 7)];
     }
     public static int edgeDistance(File file) {
-        return Math.min(file.ordinal(), File.FILE_H.ordinal() - file.ordinal());
+        return edgeDistance(file.ordinal());
+    }
+    public static int edgeDistance(int file) {
+        return Math.min(file, File.FILE_H.ordinal() - file);
     }
 
 
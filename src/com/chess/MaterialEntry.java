@@ -0,0 +1,12 @@
+package com.chess;
+
+public class MaterialEntry {
+
+    public long key;
+    public int imbalance;
+    public int phase;
+    public int scaleFactor;
+    public boolean insufficientMaterial;
+
+
+}
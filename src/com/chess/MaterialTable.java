@@ -0,0 +1,23 @@
+package com.chess;
+
+public class MaterialTable {
+
+    // only a few material signatures show up in one search
+    private static final int SIZE = 8192;
+    private final MaterialEntry[] entries;
+
+
+    public MaterialTable() {
+        entries = new MaterialEntry[SIZE];
+        for (int i = 0; i < SIZE; i++)
+            entries[i] = new MaterialEntry();
+    }
+
+
+    // the caller checks the key and fills the entry on a miss
+    public MaterialEntry probe(long materialKey) {
+        return entries[(int) materialKey & (SIZE - 1)];
+    }
+
+
+}
@@ -4,6 +4,7 @@ import java.util.List;
 import java.util.stream.Collectors;
 
 import static com.chess.IntegerUtil.*;
+import static com.chess.BoardConstants.*;
 
 public class Move {
 
@@ -32,7 +33,22 @@ public class Move {
         return (move & 0x2000000) != 0;
     }
     public static boolean isTactical(int move) {
-        return isCapture(move) || !promotion(move).equals(Piece.NONE);
+        return isCapture(move) || promotionIndex(move) != NO_PIECE;
+    }
+
+
+    // the same fields as plain ints, for code that never needs the enums
+    public static int fromIndex(int move) {
+        return move & 0x7F;
+    }
+    public static int toIndex(int move) {
+        return (move & 0x3F80) >> 7;
+    }
+    public static int pieceIndex(int move) {
+        return (move & 0x3C000) >> 14;
+    }
+    public static int promotionIndex(int move) {
+        return (move & 0x3C0000) >> 18;
     }
 
 
@@ -46,6 +62,16 @@ public class Move {
                 (enPassant << 24) |
                 (castling << 25);
     }
+    public static int encodeMove(int from, int to, int piece, int promotion, int capture, int push, int enPassant, int castling) {
+        return from |
+                (to << 7) |
+                (piece << 14) |
+                (promotion << 18) |
+                (capture << 22) |
+                (push << 23) |
+                (enPassant << 24) |
+                (castling << 25);
+    }
 
 
     /*
@@ -73,6 +99,11 @@ public class Move {
 
 
     public static int fromString(Board board, String move) {
+        // two squares and maybe a promotion piece, anything else is no move
+        if (!move.matches("(?i)[a-h][1-8][a-h][1-8][nbrq]?"))
+            return 0;
+
+
         Square from = Square.valueOf(move.substring(0, 2).toUpperCase());
         Square to = Square.valueOf(move.substring(2, 4).toUpperCase());
         Piece promotion = Piece.NONE;
@@ -1,299 +1,382 @@
 package com.chess;
 
-import java.util.LinkedList;
+import java.util.ArrayList;
 import java.util.List;
 
 import static com.chess.Move.*;
 import static com.chess.Bitboard.*;
-import static com.chess.Rank.*;
-import static com.chess.File.*;
 import static com.chess.Square.*;
+import static com.chess.IntegerUtil.*;
+import static com.chess.SearchConstants.*;
+import static com.chess.BoardConstants.*;
 
 public class MoveGenerator {
 
-    public static void addMove(List<Integer> moves, Board board, int move) {
-        moves.add(move);
-    }
+    /*
+                  ! Legal move generation !
+       checkers and pinned pieces are computed once per call and every
+       move written to the buffer is legal, so no move has to be made
+       and taken back just to find out
 
+       in check only evasions are generated: king moves and, against a
+       single checker, captures of it or blocks on the squares between.
+       pinned pieces stay on the line through their king, king moves are
+       tested with the king removed from the occupancy and en passant is
+       tested on the occupancy after the capture
 
-    public static void generatePawnMoves(Board board, List<Integer> moves) {
-        Side us = board.sideToMove();
-        Piece ourPawn = Piece.encodePiece(us, PieceType.PAWN);
-        int pawnPush = us.equals(Side.WHITE) ? 8 : -8;
+       moves come out in the order pawn captures, pawn pushes, knights,
+       bishops and queens, rooks and queens, king, castling
+                                                                     */
+    public static final int ALL_MOVES = 0;
+    // captures and promotions
+    public static final int CAPTURES = 1;
+    // quiet moves without promotions
+    public static final int NON_CAPTURES = 2;
 
 
-        long pushBB = rankBB(relativeRank(us, RANK_2));
-        long promotionBB = rankBB(relativeRank(us, RANK_7));
+    public static List<Integer> generateLegalMoves(Board board) {
+        int[] moves = new int[maxMoves];
+        int size = generate(board, ALL_MOVES, moves, 0);
+        List<Integer> list = new ArrayList<>(size);
+        for (int i = 0; i < size; i++)
+            list.add(moves[i]);
+        return list;
+    }
 
 
-        long bb = board.bitboard(ourPawn);
-        while (bb != 0L) {
-            Square from = squareAt(lsb(bb));
-            Square to = squareAt(from.ordinal() + pawnPush);
-            bb = extractLsb(bb);
+    public static int generate(Board board, int type, int[] moves, int size) {
+        final int us = board.sideToMove().ordinal();
+        final int them = us ^ 1;
+        final int ksq = board.kingSquare(us);
+        final long checkers = board.attackersTo(ksq) & board.sideBitboard(them);
+        final long pinned = board.lineBlockers(ksq, board.sideBitboard(them)) & board.sideBitboard(us);
 
 
-            // check if no piece at to square
-            if ((to.bitboard() & board.bitboard()) == 0L) {
-                // if one square ahead from promotion
-                if ((rankBB(from) & promotionBB) != 0L) {
-                    addMove(moves, board, encodeMove(from, to, ourPawn, Piece.encodePiece(us, PieceType.QUEEN), 0, 0, 0, 0));
-                    addMove(moves, board, encodeMove(from, to, ourPawn, Piece.encodePiece(us, PieceType.ROOK), 0, 0, 0, 0));
-                    addMove(moves, board, encodeMove(from, to, ourPawn, Piece.encodePiece(us, PieceType.BISHOP), 0, 0, 0, 0));
-                    addMove(moves, board, encodeMove(from, to, ourPawn, Piece.encodePiece(us, PieceType.KNIGHT), 0, 0, 0, 0));
-                } else {
-                    // one push move
-                    addMove(moves, board, encodeMove(from, to, ourPawn, Piece.NONE, 0, 0, 0, 0));
-                    if ((rankBB(from) & pushBB) != 0L && (squareAt(to.ordinal() + pawnPush).bitboard() & board.bitboard()) == 0L)
-                        // two push move
-                        addMove(moves, board, encodeMove(from, squareAt(to.ordinal() + pawnPush), ourPawn, Piece.NONE, 0, 1, 0, 0));
-                }
-            }
+        // in double check only the king can move
+        if (!moreThanOne(checkers)) {
+            long targets = ~board.sideBitboard(us);
+            if (checkers != 0L)
+                targets &= checkers | betweenSquares[ksq][lsb(checkers)];
+            if (type == CAPTURES)
+                targets &= board.sideBitboard(them);
+            else if (type == NON_CAPTURES)
+                targets &= ~board.sideBitboard(them);
+
+
+            if (type != NON_CAPTURES)
+                size = generatePawnCaptures(board, us, ksq, pinned, targets, moves, size);
+            size = generatePawnPushes(board, type, us, ksq, pinned, checkers, moves, size);
+            size = generatePieceMoves(board, KNIGHT, board.pieceBitboard(us, KNIGHT), ksq, pinned, targets, moves, size);
+            size = generatePieceMoves(board, BISHOP, board.pieceBitboard(us, BISHOP) | board.pieceBitboard(us, QUEEN), ksq, pinned, targets, moves, size);
+            size = generatePieceMoves(board, ROOK, board.pieceBitboard(us, ROOK) | board.pieceBitboard(us, QUEEN), ksq, pinned, targets, moves, size);
         }
+
+
+        size = generateKingMoves(board, type, us, ksq, moves, size);
+        if (checkers == 0L && type != CAPTURES)
+            size = generateCastlingMoves(board, us, moves, size);
+        return size;
     }
 
 
-    public static void generatePawnCaptures(Board board, List<Integer> moves) {
-        Side us = board.sideToMove();
-        Side them = us.flip();
-        Piece ourPawn = Piece.encodePiece(us, PieceType.PAWN);
+    private static int generatePawnCaptures(Board board, int us, int ksq, long pinned, long targets, int[] moves, int size) {
+        final int pawn = makePiece(us, PAWN);
+        final int enPassant = board.enPassantIndex();
+        final long promotionBB = rankBB(relativeRank(us, A7.ordinal()));
 
 
-        long promotionBB = rankBB(relativeRank(us, RANK_7));
-        long bb = board.bitboard(ourPawn);
+        long bb = board.pieceBitboard(pawn);
         while (bb != 0L) {
-            Square from = squareAt(lsb(bb));
+            int from = lsb(bb);
             bb = extractLsb(bb);
 
 
-            long attacks = pawnAttacks[us.ordinal()][from.ordinal()];
-
-
-            if (board.enPassant() != Square.NONE && (attacks & board.enPassant().bitboard()) != 0L)
-                addMove(moves, board, encodeMove(from, board.enPassant(), ourPawn, Piece.NONE, 1, 0 , 1, 0));
+            long attacks = pawnAttacks[us][from];
+            if (enPassant != NO_SQUARE && (attacks & squareBB(enPassant)) != 0L && isLegalEnPassant(board, us, ksq, from, enPassant))
+                moves[size++] = encodeMove(from, enPassant, pawn, NO_PIECE, 1, 0, 1, 0);
 
 
-            attacks &= board.bitboard(them);
+            attacks &= board.sideBitboard(us ^ 1) & targets;
+            if ((pinned & squareBB(from)) != 0L)
+                attacks &= lineBB[ksq][from];
 
 
             while (attacks != 0L) {
-                Square to = squareAt(lsb(attacks));
+                int to = lsb(attacks);
                 attacks = extractLsb(attacks);
 
 
-                // pawn capture with promotion
-                if ((rankBB(from) & promotionBB) != 0L) {
-                    addMove(moves, board, encodeMove(from, to, ourPawn, Piece.encodePiece(us, PieceType.QUEEN), 1, 0, 0, 0));
-                    addMove(moves, board, encodeMove(from, to, ourPawn, Piece.encodePiece(us, PieceType.ROOK), 1, 0, 0, 0));
-                    addMove(moves, board, encodeMove(from, to, ourPawn, Piece.encodePiece(us, PieceType.BISHOP), 1, 0, 0, 0));
-                    addMove(moves, board, encodeMove(from, to, ourPawn, Piece.encodePiece(us, PieceType.KNIGHT), 1, 0, 0, 0));
-                } else
-                    addMove(moves, board, encodeMove(from, to, ourPawn, Piece.NONE, 1, 0, 0, 0));
+                if ((squareBB(from) & promotionBB) != 0L)
+                    size = addPromotions(from, to, us, 1, moves, size);
+                else
+                    moves[size++] = encodeMove(from, to, pawn, NO_PIECE, 1, 0, 0, 0);
             }
         }
+        return size;
     }
 
 
-    public static void generateKnightMoves(Board board, List<Integer> moves) {
-        Side us = board.sideToMove();
-        Side them = us.flip();
-        Piece ourKnight = Piece.encodePiece(us, PieceType.KNIGHT);
+    private static int generatePawnPushes(Board board, int type, int us, int ksq, long pinned, long checkers, int[] moves, int size) {
+        final int pawn = makePiece(us, PAWN);
+        final int push = pawnPush(us);
+        final long occupancy = board.bitboard();
+        final long pushBB = rankBB(relativeRank(us, A2.ordinal()));
+        final long promotionBB = rankBB(relativeRank(us, A7.ordinal()));
+        // pushes never capture, so in check they can only block
+        final long targets = checkers == 0L ? ~occupancy : betweenSquares[ksq][lsb(checkers)];
 
 
-        long bb = board.bitboard(ourKnight);
+        long bb = board.pieceBitboard(pawn);
         while (bb != 0L) {
-            Square from = squareAt(lsb(bb));
+            int from = lsb(bb);
+            int to = from + push;
             bb = extractLsb(bb);
 
 
-            long attacks = knightAttacks[from.ordinal()] & ~board.bitboard(us);
-            while (attacks != 0L) {
-                Square to = squareAt(lsb(attacks));
-                attacks = extractLsb(attacks);
+            if ((squareBB(to) & occupancy) != 0L)
+                continue;
+            long line = (pinned & squareBB(from)) != 0L ? lineBB[ksq][from] : ~0L;
 
 
-                if ((to.bitboard() & board.bitboard(them)) != 0L)
-                    addMove(moves, board, encodeMove(from, to, ourKnight, Piece.NONE, 1, 0, 0, 0));
-                else
-                    addMove(moves, board, encodeMove(from, to, ourKnight, Piece.NONE, 0, 0, 0, 0));
+            if ((squareBB(from) & promotionBB) != 0L) {
+                if (type != NON_CAPTURES && (squareBB(to) & targets & line) != 0L)
+                    size = addPromotions(from, to, us, 0, moves, size);
+            } else if (type != CAPTURES) {
+                if ((squareBB(to) & targets & line) != 0L)
+                    moves[size++] = encodeMove(from, to, pawn, NO_PIECE, 0, 0, 0, 0);
+                if ((squareBB(from) & pushBB) != 0L && (squareBB(to + push) & occupancy) == 0L
+                        && (squareBB(to + push) & targets & line) != 0L)
+                    moves[size++] = encodeMove(from, to + push, pawn, NO_PIECE, 0, 1, 0, 0);
             }
         }
+        return size;
+    }
+
+
+    private static int addPromotions(int from, int to, int us, int capture, int[] moves, int size) {
+        final int pawn = makePiece(us, PAWN);
+        moves[size++] = encodeMove(from, to, pawn, makePiece(us, QUEEN), capture, 0, 0, 0);
+        moves[size++] = encodeMove(from, to, pawn, makePiece(us, ROOK), capture, 0, 0, 0);
+        moves[size++] = encodeMove(from, to, pawn, makePiece(us, BISHOP), capture, 0, 0, 0);
+        moves[size++] = encodeMove(from, to, pawn, makePiece(us, KNIGHT), capture, 0, 0, 0);
+        return size;
     }
 
 
-    public static void generateBishopAttacks(Board board, List<Integer> moves) {
-        Side us = board.sideToMove();
-        Side them = us.flip();
+    private static boolean isLegalEnPassant(Board board, int us, int ksq, int from, int to) {
+        // both pawns leave their squares at once, which can uncover the king along the rank
+        final int captured = board.enPassantTargetIndex();
+        final long occupancy = (board.bitboard() ^ squareBB(from) ^ squareBB(captured)) | squareBB(to);
+        return (board.attackersToSquare(ksq, occupancy) & board.sideBitboard(us ^ 1)) == 0L;
+    }
 
 
-        Piece ourBishop = Piece.encodePiece(us, PieceType.BISHOP);
-        // include queen on bishop attacks
-        Piece ourQueen = Piece.encodePiece(us, PieceType.QUEEN);
+    private static int generatePieceMoves(Board board, int pt, long pieces, int ksq, long pinned, long targets, int[] moves, int size) {
+        final long occupancy = board.bitboard();
+        final long enemies = occupancy & ~board.sideBitboard(board.sideToMove().ordinal());
 
 
-        long bb = board.bitboard(ourBishop) | board.bitboard(ourQueen);
-        while (bb != 0L) {
-            Square from = squareAt(lsb(bb));
-            Piece piece = board.pieceAt(from).pieceType().equals(PieceType.BISHOP) ? ourBishop : ourQueen;
-            bb = extractLsb(bb);
+        while (pieces != 0L) {
+            int from = lsb(pieces);
+            int piece = board.pieceOn(from);
+            pieces = extractLsb(pieces);
 
 
-            long attacks = bishopAttacks(from, board.bitboard()) & ~board.bitboard(us);
-            while (attacks != 0L) {
-                Square to = squareAt(lsb(attacks));
-                attacks = extractLsb(attacks);
+            long attacks = (pt == KNIGHT ? knightAttacks[from]
+                          : pt == BISHOP ? bishopAttacks(from, occupancy)
+                          : rookAttacks(from, occupancy)) & targets;
+            if ((pinned & squareBB(from)) != 0L)
+                attacks &= lineBB[ksq][from];
 
 
-                if ((to.bitboard() & board.bitboard(them)) != 0L)
-                    addMove(moves, board, encodeMove(from, to, piece, Piece.NONE, 1, 0, 0, 0));
-                else
-                    addMove(moves, board, encodeMove(from, to, piece, Piece.NONE, 0, 0, 0, 0));
+            while (attacks != 0L) {
+                int to = lsb(attacks);
+                attacks = extractLsb(attacks);
+                moves[size++] = encodeMove(from, to, piece, NO_PIECE, _int((enemies & squareBB(to)) != 0L), 0, 0, 0);
             }
         }
+        return size;
     }
 
 
-    public static void generateRookAttacks(Board board, List<Integer> moves) {
-        Side us = board.sideToMove();
-        Side them = us.flip();
+    private static int generateKingMoves(Board board, int type, int us, int ksq, int[] moves, int size) {
+        final int king = makePiece(us, KING);
+        final long enemies = board.sideBitboard(us ^ 1);
 
 
-        Piece ourRook = Piece.encodePiece(us, PieceType.ROOK);
-        // include queen on rook attacks
-        Piece ourQueen = Piece.encodePiece(us, PieceType.QUEEN);
+        long attacks = kingTargets(board, us, ksq);
+        if (type == CAPTURES)
+            attacks &= enemies;
+        else if (type == NON_CAPTURES)
+            attacks &= ~enemies;
 
 
-        long bb = board.bitboard(ourRook) | board.bitboard(ourQueen);
-        while (bb != 0L) {
-            Square from = squareAt(lsb(bb));
-            Piece piece = board.pieceAt(from).pieceType().equals(PieceType.ROOK) ? ourRook : ourQueen;
-            bb = extractLsb(bb);
+        while (attacks != 0L) {
+            int to = lsb(attacks);
+            attacks = extractLsb(attacks);
+            moves[size++] = encodeMove(ksq, to, king, NO_PIECE, _int((enemies & squareBB(to)) != 0L), 0, 0, 0);
+        }
+        return size;
+    }
 
 
-            long attacks = rookAttacks(from, board.bitboard()) & ~board.bitboard(us);
-            while (attacks != 0L) {
-                Square to = squareAt(lsb(attacks));
-                attacks = extractLsb(attacks);
+    // squares the king can safely step to
+    private static long kingTargets(Board board, int us, int ksq) {
+        final long enemies = board.sideBitboard(us ^ 1);
+        // sliders attacking the king also attack the squares behind it
+        final long occupancy = board.bitboard() ^ squareBB(ksq);
+        long attacks = kingAttacks[ksq] & ~board.sideBitboard(us);
+        long targets = 0L;
 
 
-                if ((to.bitboard() & board.bitboard(them)) != 0L)
-                    addMove(moves, board, encodeMove(from, to, piece, Piece.NONE, 1, 0, 0, 0));
-                else
-                    addMove(moves, board, encodeMove(from, to, piece, Piece.NONE, 0, 0, 0, 0));
-            }
+        while (attacks != 0L) {
+            int to = lsb(attacks);
+            attacks = extractLsb(attacks);
+            if ((board.attackersToSquare(to, occupancy) & enemies) == 0L)
+                targets |= squareBB(to);
         }
+        return targets;
     }
 
 
-    public static void generateQueenAttacks(Board board, List<Integer> moves) {
-        Side us = board.sideToMove();
-        Side them = us.flip();
-        Piece ourQueen = Piece.encodePiece(us, PieceType.QUEEN);
+    private static int generateCastlingMoves(Board board, int us, int[] moves, int size) {
+        final int king = makePiece(us, KING);
+        final int from = relativeSquare(us, E1.ordinal());
 
 
-        long bb = board.bitboard(ourQueen);
-        while (bb != 0L) {
-            Square from = squareAt(lsb(bb));
-            bb = extractLsb(bb);
+        if (canCastle(board, us, true))
+            moves[size++] = encodeMove(from, from + 2, king, NO_PIECE, 0, 0, 0, 1);
+        if (canCastle(board, us, false))
+            moves[size++] = encodeMove(from, from - 2, king, NO_PIECE, 0, 0, 0, 1);
+        return size;
+    }
 
 
-            long attacks = queenAttacks(from, board.bitboard()) & ~board.bitboard(us);
-            while (attacks != 0L) {
-                Square to = squareAt(lsb(attacks));
-                attacks = extractLsb(attacks);
+    // the king is not in check here, the squares it crosses and lands on must be safe too
+    private static boolean canCastle(Board board, int us, boolean kingSide) {
+        final int them = us ^ 1;
+        final int from = relativeSquare(us, E1.ordinal());
+        final long occupancy = board.bitboard();
 
 
-                if ((to.bitboard() & board.bitboard(them)) != 0L)
-                    addMove(moves, board, encodeMove(from, to, ourQueen, Piece.NONE, 1, 0, 0, 0));
-                else
-                    addMove(moves, board, encodeMove(from, to, ourQueen, Piece.NONE, 0, 0, 0, 0));
-            }
+        if (kingSide) {
+            return board.hasKingCastlingRight(us)
+                    && (occupancy & (squareBB(from + 1) | squareBB(from + 2))) == 0L
+                    && !board.isSquareAttackedBy(them, from + 1) && !board.isSquareAttackedBy(them, from + 2);
         }
+        return board.hasQueenCastlingRight(us)
+                && (occupancy & (squareBB(from - 1) | squareBB(from - 2) | squareBB(from - 3))) == 0L
+                && !board.isSquareAttackedBy(them, from - 1) && !board.isSquareAttackedBy(them, from - 2);
     }
 
 
-    public static void generateKingMoves(Board board, List<Integer> moves) {
-        Side us = board.sideToMove();
-        Side them = us.flip();
-        Piece ourKing = Piece.encodePiece(us, PieceType.KING);
+    /*
+                  ! Counting without generating !
+       the same check and pin masks as generate, but destinations are
+       only counted, a whole piece at a time. with any set the count
+       stops at the first legal move found, the king goes first since
+       it rarely has none
+                                                                     */
+    public static int countLegalMoves(Board board) {
+        return count(board, false);
+    }
 
 
-        long bb = board.bitboard(ourKing);
-        Square from = squareAt(lsb(bb));
+    public static boolean hasLegalMove(Board board) {
+        return count(board, true) != 0;
+    }
 
 
-        /*if (from.equals(Square.NONE)) {
-            System.out.println(from);
-            System.out.println(Bitboard.toString(bb));
+    private static int count(Board board, boolean any) {
+        final int us = board.sideToMove().ordinal();
+        final int them = us ^ 1;
+        final int ksq = board.kingSquare(us);
+        final long checkers = board.attackersTo(ksq) & board.sideBitboard(them);
 
 
-            while (board.backups().size() > 0) {
-                System.out.println(Move.notation(board.undoMove()));
-                System.out.println(board);
-            }
+        int count = Long.bitCount(kingTargets(board, us, ksq));
+        if ((any && count != 0) || moreThanOne(checkers))
+            return count;
 
 
-            System.exit(0);
-        }*/
+        final long pinned = board.lineBlockers(ksq, board.sideBitboard(them)) & board.sideBitboard(us);
+        final long occupancy = board.bitboard();
+        long targets = ~board.sideBitboard(us);
+        if (checkers != 0L)
+            targets &= checkers | betweenSquares[ksq][lsb(checkers)];
 
 
-        long attacks = kingAttacks[from.ordinal()] & ~board.bitboard(us);
-        while (attacks != 0L) {
-            Square to = squareAt(lsb(attacks));
-            attacks = extractLsb(attacks);
+        // a pinned knight can never move
+        long bb = board.pieceBitboard(us, KNIGHT) & ~pinned;
+        while (bb != 0L) {
+            count += Long.bitCount(knightAttacks[lsb(bb)] & targets);
+            bb = extractLsb(bb);
+        }
 
 
-            if ((to.bitboard() & board.bitboard(them)) != 0L)
-                addMove(moves, board, encodeMove(from, to, ourKing, Piece.NONE, 1, 0, 0, 0));
-            else
-                addMove(moves, board, encodeMove(from, to, ourKing, Piece.NONE, 0, 0, 0, 0));
+        bb = board.pieceBitboard(us, BISHOP) | board.pieceBitboard(us, QUEEN);
+        while (bb != 0L) {
+            int from = lsb(bb);
+            bb = extractLsb(bb);
+            long attacks = bishopAttacks(from, occupancy) & targets;
+            count += Long.bitCount((pinned & squareBB(from)) != 0L ? attacks & lineBB[ksq][from] : attacks);
         }
-    }
 
 
-    public static void generateCastlingMoves(Board board, List<Integer> moves) {
-        Side us = board.sideToMove();
-        Side them = us.flip();
+        bb = board.pieceBitboard(us, ROOK) | board.pieceBitboard(us, QUEEN);
+        while (bb != 0L) {
+            int from = lsb(bb);
+            bb = extractLsb(bb);
+            long attacks = rookAttacks(from, occupancy) & targets;
+            count += Long.bitCount((pinned & squareBB(from)) != 0L ? attacks & lineBB[ksq][from] : attacks);
+        }
+        if (any && count != 0)
+            return count;
 
 
-        Piece ourKing = Piece.encodePiece(us, PieceType.KING);
-        int kingCastling = us.equals(Side.WHITE)
-                            ? CastlingRight.WHITE_KING.bit()
-                            : CastlingRight.BLACK_KING.bit();
-        int queenCastling = us.equals(Side.WHITE)
-                            ? CastlingRight.WHITE_QUEEN.bit()
-                            : CastlingRight.BLACK_QUEEN.bit();
+        count += countPawnMoves(board, us, ksq, pinned, checkers, targets);
+        if (checkers == 0L) {
+            count += _int(canCastle(board, us, true));
+            count += _int(canCastle(board, us, false));
+        }
+        return count;
+    }
 
 
-        // check if king can castle king side
-        if ((board.castlingRight() & kingCastling) != 0) {
-            if ((board.bitboard() & squareBB(relativeSquare(us, F1))) == 0L && (board.bitboard() & squareBB(relativeSquare(us, G1))) == 0L) {
-                if (!board.isSquareAttackedBy(them, relativeSquare(us, E1)) && !board.isSquareAttackedBy(them, relativeSquare(us, F1)))
-                    addMove(moves, board, encodeMove(relativeSquare(us, E1), relativeSquare(us, G1), ourKing, Piece.NONE, 0, 0, 0, 1));
-            }
-        }
+    private static int countPawnMoves(Board board, int us, int ksq, long pinned, long checkers, long targets) {
+        final int push = pawnPush(us);
+        final int enPassant = board.enPassantIndex();
+        final long occupancy = board.bitboard();
+        final long enemies = board.sideBitboard(us ^ 1);
+        final long pushBB = rankBB(relativeRank(us, A2.ordinal()));
+        final long promotionBB = rankBB(relativeRank(us, A7.ordinal()));
+        final long pushTargets = checkers == 0L ? ~occupancy : betweenSquares[ksq][lsb(checkers)];
+        int count = 0;
+
+
+        long bb = board.pieceBitboard(us, PAWN);
+        while (bb != 0L) {
+            int from = lsb(bb);
+            int to = from + push;
+            bb = extractLsb(bb);
 
 
-        // check if king can castle queen side
-        if ((board.castlingRight() & queenCastling) != 0) {
-            if ((board.bitboard() & squareBB(relativeSquare(us, D1))) == 0L && (board.bitboard() & squareBB(relativeSquare(us, C1))) == 0L && (board.bitboard() & squareBB(relativeSquare(us, B1))) == 0L) {
-                if (!board.isSquareAttackedBy(them, relativeSquare(us, E1)) && !board.isSquareAttackedBy(them, relativeSquare(us, D1)))
-                    addMove(moves, board, encodeMove(relativeSquare(us, E1), relativeSquare(us, C1), ourKing, Piece.NONE, 0, 0, 0, 1));
+            long line = (pinned & squareBB(from)) != 0L ? lineBB[ksq][from] : ~0L;
+            long destinations = pawnAttacks[us][from] & enemies & targets & line;
+            if ((squareBB(to) & occupancy) == 0L) {
+                destinations |= squareBB(to) & pushTargets & line;
+                if ((squareBB(from) & pushBB) != 0L && (squareBB(to + push) & occupancy) == 0L)
+                    destinations |= squareBB(to + push) & pushTargets & line;
             }
-        }
-    }
 
 
-    public static List<Integer> generateLegalMoves(Board board) {
-        List<Integer> moves = new LinkedList<>();
-        generatePawnCaptures(board, moves);
-        generatePawnMoves(board, moves);
-        generateKnightMoves(board, moves);
-        generateBishopAttacks(board, moves);
-        generateRookAttacks(board, moves);
-        generateKingMoves(board, moves);
-        generateCastlingMoves(board, moves);
-        return moves;
+            // every promotion comes in four pieces
+            count += Long.bitCount(destinations) * ((squareBB(from) & promotionBB) != 0L ? 4 : 1);
+            if (enPassant != NO_SQUARE && (pawnAttacks[us][from] & squareBB(enPassant)) != 0L
+                    && isLegalEnPassant(board, us, ksq, from, enPassant))
+                count++;
+        }
+        return count;
     }
 
 
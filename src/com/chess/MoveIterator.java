@@ -13,15 +13,10 @@ import static com.chess.SearchConstants.*;
 import static com.chess.Square.*;
 import static com.chess.ScoreConstants.*;
 import static com.chess.Score.*;
+import static com.chess.BoardConstants.*;
 
 public class MoveIterator {
 
-    public static final int[] lowPlyHistory = new int[4 * 64 * 64];
-    public static final int[] butterflyHistory = new int[2 * 64 * 64];
-    public static final int[] captureHistory = new int[12 * 64 * 6];
-    public static final int[] counterMoves = new int[12 * 64];
-
-
     private static final int[] plyOffsets = {1, 2, 4, 6};
     private static final int[] MVV_LVA = {
             105, 205, 305, 405, 505, 605,
@@ -37,6 +32,7 @@ public class MoveIterator {
         ALL_MOVES,
         TT,
         PV,
+        GENERATE_CAPTURES,
         GOOD_CAPTURES_PROMOS,
         EQUAL_CAPTURES,
         KILLER1,
@@ -44,6 +40,7 @@ public class MoveIterator {
         KILLER3,
         KILLER4,
         CM,
+        GENERATE_QUIETS,
         NON_CAPTURES,
         BAD_CAPTURES,
         END;
@@ -56,28 +53,30 @@ public class MoveIterator {
     }
 
 
-    private enum GenerateType {
-        ALL_MOVES,
-        CAPTURES,
-        NON_CAPTURES,
-        PROMOS,
-        CHECKS
-    }
-
-
     private final boolean sortMoves;
+    // quiescence iteration, the capture stages and the bad captures only
+    private boolean capturesOnly;
     private final Engine engine;
     private final Board board;
+    private final int[] butterflyHistory;
+    private final int[] captureHistory;
+    private final int[] counterMoves;
     private Stage stage;
 
 
     private int lastMove;
     private int lastMoveScore;
-    private int lastMoveSee;
-    private int goodCaptureIndex;
+    private int lastMoveSeeMin;
+    private int lastMoveSeeMax;
+    private int captureIndex;
     private int equalCaptureIndex;
     private int badCaptureIndex;
     private int nonCaptureIndex;
+    private int captureCursor;
+    private int equalCaptureCursor;
+    private int badCaptureCursor;
+    private int nonCaptureCursor;
+    private int quietSortLimit;
     private int ttMove;
     private int pvMove;
     private int prevMove;
@@ -88,80 +87,75 @@ public class MoveIterator {
     private int counterMove;
 
 
-    private boolean lastMoveKiller;
-    private boolean foundTT;
-    private boolean foundPV;
-    private boolean foundKM1;
-    private boolean foundKM2;
-    private boolean foundKM3;
-    private boolean foundKM4;
-    private boolean foundCM;
-
-
     private final int[] allMoves;
     private int allMovesIndex;
     private int allMovesLength;
 
 
-    private final int[] goodCaptures;
-    private final int[] goodCapturesSee;
-    private final int[] goodCapturesScore;
-    private final int[] equalCaptures;
-    private final int[] equalCapturesSee;
-    private final int[] equalCapturesScore;
-    private final int[] badCaptures;
-    private final int[] badCapturesSee;
-    private final int[] badCapturesScores;
-    private final int[] nonCaptures;
-    private final int[] nonCapturesSee;
-    private final int[] nonCaptureScore;
+    /*
+                  ! Scored move lists !
+       every entry is score << 32 | move, so comparing two entries as
+       longs orders them by score. captures are few and usually cut
+       early, so the best is selected on demand. quiets are insertion
+       sorted once, but only those scoring above a depth dependent
+       limit, the rest are tried in generation order
+                                                                     */
+    private final long[] captures;
+    private final long[] equalCaptures;
+    private final long[] badCaptures;
+    private final long[] nonCaptures;
 
 
     public MoveIterator(Engine engine, boolean sortMoves) {
         this.sortMoves = sortMoves;
         this.engine = engine;
         board = engine.board();
+        butterflyHistory = engine.butterflyHistory();
+        captureHistory = engine.captureHistory();
+        counterMoves = engine.counterMoves();
 
 
         clear();
         allMoves = new int[maxMoves];
-        goodCaptures = new int[maxMoves];
-        goodCapturesSee = new int[maxMoves];
-        goodCapturesScore = new int[maxMoves];
-        equalCaptures = new int[maxMoves];
-        equalCapturesSee = new int[maxMoves];
-        equalCapturesScore = new int[maxMoves];
-        badCaptures = new int[maxMoves];
-        badCapturesSee = new int[maxMoves];
-        badCapturesScores = new int[maxMoves];
-        nonCaptures = new int[maxMoves];
-        nonCapturesSee = new int[maxMoves];
-        nonCaptureScore = new int[maxMoves];
+        captures = new long[maxMoves];
+        equalCaptures = new long[maxMoves];
+        badCaptures = new long[maxMoves];
+        nonCaptures = new long[maxMoves];
     }
 
 
     public int lastMoveScore() {
         return lastMoveScore;
     }
-    public int lastMoveSee() {
-        return lastMoveSee;
-    }
-    public boolean isLastMoveKiller() {
-        return lastMoveKiller;
+    // see is only computed here when the stage of the last move does not already
+    // decide it, so this must be asked before the move is made
+    public boolean lastMoveSeeGE(int threshold) {
+        if (lastMoveSeeMin >= threshold)
+            return true;
+        if (lastMoveSeeMax < threshold)
+            return false;
+        return board.seeGE(lastMove, threshold);
     }
 
 
     public void clear() {
         stage = (sortMoves ? Stage.TT : Stage.ALL_MOVES);
+        capturesOnly = false;
         allMovesIndex = 0;
         allMovesLength = 0;
-        goodCaptureIndex = 0;
+        captureIndex = 0;
         equalCaptureIndex = 0;
         badCaptureIndex = 0;
         nonCaptureIndex = 0;
+        captureCursor = 0;
+        equalCaptureCursor = 0;
+        badCaptureCursor = 0;
+        nonCaptureCursor = 0;
+        quietSortLimit = 0;
         lastMove = 0;
         lastMoveScore = 0;
-        lastMoveSee = 0;
+        lastMoveSeeMin = -infinity;
+        lastMoveSeeMax = infinity;
         ttMove = 0;
         pvMove = 0;
         prevMove = 0;
@@ -170,38 +164,23 @@ public class MoveIterator {
         killerMove3 = 0;
         killerMove4 = 0;
         counterMove = 0;
-        lastMoveKiller = false;
-        foundTT = false;
-        foundPV = false;
-        foundKM1 = false;
-        foundKM2 = false;
-        foundKM3 = false;
-        foundKM4 = false;
-        foundCM = false;
     }
 
 
     public void reset() {
         clear();
         Arrays.fill(allMoves, 0);
-        Arrays.fill(goodCaptures, 0);
-        Arrays.fill(goodCapturesSee, 0);
-        Arrays.fill(goodCapturesScore, 0);
-        Arrays.fill(equalCaptures, 0);
-        Arrays.fill(equalCapturesSee, 0);
-        Arrays.fill(equalCapturesScore, 0);
-        Arrays.fill(badCaptures, 0);
-        Arrays.fill(badCapturesSee, 0);
-        Arrays.fill(badCapturesScores, 0);
-        Arrays.fill(nonCaptures, 0);
-        Arrays.fill(nonCapturesSee, 0);
-        Arrays.fill(nonCaptureScore, 0);
+        Arrays.fill(captures, 0L);
+        Arrays.fill(equalCaptures, 0L);
+        Arrays.fill(badCaptures, 0L);
+        Arrays.fill(nonCaptures, 0L);
     }
 
 
-    public void initialize() {
+    public void initialize(int depth) {
         clear();
         int ply = engine.ply();
+        quietSortLimit = -3000 * depth;
 
 
         Node node = engine.currentNode();
@@ -212,9 +191,41 @@ public class MoveIterator {
         killerMove2 = node.killerMove2;
         killerMove3 = (ply >= 2 ? engine.tree()[ply - 2].killerMove1 : 0);
         killerMove4 = (ply >= 2 ? engine.tree()[ply - 2].killerMove2 : 0);
+        counterMove = counterMoves[pieceIndex(prevMove) * 64 + toIndex(prevMove)];
+
+
+        // sorted iteration generates each stage only when the search gets there
+        if (!sortMoves)
+            generateMoves();
+    }
+
+
+    // captures and promotions only, or every evasion when in check. out of
+    // check quiet moves are never generated and killers never looked at
+    public void initializeQuiescence(int depth, boolean inCheck) {
+        if (inCheck) {
+            initialize(depth);
+            return;
+        }
+
+
+        clear();
+        capturesOnly = true;
+        ttMove = engine.currentNode().ttMove;
+        pvMove = engine.rootMove().pvTable[engine.ply()];
+        if (!sortMoves)
+            generateCaptures();
+    }
 
 
-        generateMoves();
+    private boolean isValid(int move) {
+        return move != 0 && board.isPseudoLegal(move) && board.isLegal(move);
+    }
+
+
+    // killers and counter moves are quiet and must not repeat an earlier stage
+    private boolean isValidQuiet(int move) {
+        return move != ttMove && move != pvMove && !isTactical(move) && isValid(move);
     }
 
 
@@ -226,97 +237,116 @@ public class MoveIterator {
         }
 
 
+        lastMoveSeeMin = -infinity;
+        lastMoveSeeMax = infinity;
         switch (stage) {
             case TT -> {
                 stage = stage.increment();
-                if (foundTT) {
+                if ((!capturesOnly || isTactical(ttMove)) && isValid(ttMove)) {
                     lastMove = ttMove;
-                    lastMoveSee = board.see(ttMove);
                     return ttMove;
                 }
                 return next();
             }
             case PV -> {
                 stage = stage.increment();
-                if (foundPV) {
-                    foundPV = false;
+                if (pvMove != ttMove && (!capturesOnly || isTactical(pvMove)) && isValid(pvMove)) {
                     lastMove = pvMove;
-                    lastMoveSee = board.see(pvMove);
                     return pvMove;
                 }
                 return next();
             }
+            case GENERATE_CAPTURES -> {
+                stage = stage.increment();
+                generateCaptures();
+                return next();
+            }
             case GOOD_CAPTURES_PROMOS -> {
-                lastMove = pickMoveFromArray(goodCaptureIndex, goodCaptures, goodCapturesScore, goodCapturesSee);
-                if (lastMove != 0)
-                    return lastMove;
+                // captures are tested against see only when picked, the losing and
+                // even ones are set aside in the order they come out, best first
+                while (captureCursor < captureIndex) {
+                    long entry = pickBest(captures, captureCursor++, captureIndex);
+                    if (promotionIndex(lastMove) != NO_PIECE)
+                        return lastMove;
+                    if (board.seeGE(lastMove, 1)) {
+                        lastMoveSeeMin = 1;
+                        return lastMove;
+                    }
+                    if (board.seeGE(lastMove, 0))
+                        equalCaptures[equalCaptureIndex++] = entry;
+                    else
+                        badCaptures[badCaptureIndex++] = entry;
+                }
                 stage = stage.increment();
                 return next();
             }
             case EQUAL_CAPTURES -> {
-                lastMove = pickMoveFromArray(equalCaptureIndex, equalCaptures, equalCapturesScore, equalCapturesSee);
-                if (lastMove != 0)
-                    return lastMove;
-                stage = stage.increment();
+                if (equalCaptureCursor < equalCaptureIndex) {
+                    lastMoveSeeMin = lastMoveSeeMax = 0;
+                    return takeNext(equalCaptures[equalCaptureCursor++]);
+                }
+                stage = capturesOnly ? Stage.BAD_CAPTURES : stage.increment();
                 return next();
             }
             case KILLER1 -> {
                 stage = stage.increment();
-                lastMoveKiller = true;
-                if (foundKM1) {
+                if (isValidQuiet(killerMove1)) {
                     lastMove = killerMove1;
-                    lastMoveSee = board.see(killerMove1);
                     return killerMove1;
                 }
                 return next();
             }
             case KILLER2 -> {
                 stage = stage.increment();
-                if (foundKM2) {
+                if (killerMove2 != killerMove1 && isValidQuiet(killerMove2)) {
                     lastMove = killerMove2;
-                    lastMoveSee = board.see(killerMove2);
                     return killerMove2;
                 }
                 return next();
             }
             case KILLER3 -> {
                 stage = stage.increment();
-                if (foundKM3) {
+                if (killerMove3 != killerMove1 && killerMove3 != killerMove2 && isValidQuiet(killerMove3)) {
                     lastMove = killerMove3;
-                    lastMoveSee = board.see(killerMove3);
                     return killerMove3;
                 }
                 return next();
             }
             case KILLER4 -> {
                 stage = stage.increment();
-                if (foundKM4) {
+                if (killerMove4 != killerMove1 && killerMove4 != killerMove2 && killerMove4 != killerMove3
+                        && isValidQuiet(killerMove4)) {
                     lastMove = killerMove4;
-                    lastMoveSee = board.see(killerMove4);
                     return killerMove4;
                 }
                 return next();
             }
             case CM -> {
                 stage = stage.increment();
-                if (foundCM) {
+                if (counterMove != killerMove1 && counterMove != killerMove2 && counterMove != killerMove3
+                        && counterMove != killerMove4 && isValidQuiet(counterMove)) {
                     lastMove = counterMove;
-                    lastMoveSee = board.see(counterMove);
                     return counterMove;
                 }
                 return next();
             }
+            case GENERATE_QUIETS -> {
+                stage = stage.increment();
+                generateNonCaptures();
+                partialInsertionSort(nonCaptures, nonCaptureIndex, quietSortLimit);
+                return next();
+            }
             case NON_CAPTURES -> {
-                lastMove = pickMoveFromArray(nonCaptureIndex, nonCaptures, nonCaptureScore, nonCapturesSee);
-                if (lastMove != 0)
-                    return lastMove;
+                if (nonCaptureCursor < nonCaptureIndex)
+                    return takeNext(nonCaptures[nonCaptureCursor++]);
                 stage = stage.increment();
                 return next();
             }
             case BAD_CAPTURES -> {
-                lastMove = pickMoveFromArray(badCaptureIndex, badCaptures, badCapturesScores, badCapturesSee);
-                if (lastMove != 0)
-                    return lastMove;
+                if (badCaptureCursor < badCaptureIndex) {
+                    lastMoveSeeMax = -1;
+                    return takeNext(badCaptures[badCaptureCursor++]);
+                }
                 stage = stage.increment();
                 return next();
             }
@@ -327,420 +357,133 @@ public class MoveIterator {
     }
 
 
-    private int pickMoveFromArray(int length, int[] moves, int[] scores, int[] seeScores) {
-        if (length == 0)
-            return 0;
-
-
-        int maxScore = -infinity;
-        int bestIndex = -1;
+    private static long pack(int score, int move) {
+        return ((long) score << 32) | move;
+    }
+    private static int scoreOf(long entry) {
+        return (int) (entry >> 32);
+    }
+    private static int moveOf(long entry) {
+        return (int) entry;
+    }
 
 
-        for (int i = 0; i < length; i++) {
-            if (scores[i] > maxScore) {
-                maxScore = scores[i];
-                bestIndex = i;
-            }
-        }
+    private int takeNext(long entry) {
+        lastMove = moveOf(entry);
+        lastMoveScore = scoreOf(entry);
+        return lastMove;
+    }
 
 
-        if (bestIndex != -1) {
-            int move = moves[bestIndex];
-            lastMove = move;
-            lastMoveScore = maxScore;
-            lastMoveSee = seeScores[bestIndex];
-            moves[bestIndex] = 0;
-            scores[bestIndex] = -infinity;
-            return move;
+    // swaps the best entry from cursor on into the cursor slot and returns it
+    private long pickBest(long[] moves, int cursor, int length) {
+        int best = cursor;
+        for (int i = cursor + 1; i < length; i++) {
+            if (moves[i] > moves[best])
+                best = i;
         }
 
 
-        return 0;
+        long entry = moves[best];
+        moves[best] = moves[cursor];
+        moves[cursor] = entry;
+        takeNext(entry);
+        return entry;
     }
 
 
-    private void addMove(int move) {
-        if (!sortMoves) {
-            allMoves[allMovesLength++] = move;
-            return;
-        }
+    // sorts the entries scoring at least limit to the front, best first
+    private static void partialInsertionSort(long[] moves, int length, int limit) {
+        for (int sortedEnd = 0, p = 1; p < length; p++) {
+            if (scoreOf(moves[p]) >= limit) {
+                long entry = moves[p];
+                moves[p] = moves[++sortedEnd];
 
 
-        if (move == ttMove) {
-            foundTT = true;
-            return;
+                int q = sortedEnd;
+                for (; q > 0 && moves[q - 1] < entry; q--)
+                    moves[q] = moves[q - 1];
+                moves[q] = entry;
+            }
         }
+    }
 
 
-        if (move == pvMove) {
-            foundPV = true;
+    private void addMove(int move) {
+        // already tried in their own stages
+        if (move == ttMove || move == pvMove || move == killerMove1 || move == killerMove2
+                || move == killerMove3 || move == killerMove4 || move == counterMove)
             return;
-        }
 
 
-        final Square from = from(move);
-        final Square to = to(move);
-        final Piece movingPiece = movingPiece(move);
-        final Piece promotion = promotion(move);
+        final int from = fromIndex(move);
+        final int to = toIndex(move);
+        final int movingPiece = pieceIndex(move);
+        final int promotion = promotionIndex(move);
         final boolean isCapture = isCapture(move);
-        final boolean isPush = isPush(move);
-        final boolean isEnPassant = isEnPassant(move);
-        final boolean isCastling = isCastling(move);
-        final int see = board.see(move);
 
 
-        Piece capturedPiece = board.pieceAt(to);
-        if (capturedPiece.equals(Piece.NONE) && to.equals(board.enPassant()) && movingPiece.pieceType().equals(PieceType.PAWN))
-            capturedPiece = board.pieceAt(board.enPassantTarget());
+        int capturedPiece = board.pieceOn(to);
+        if (capturedPiece == NO_PIECE && to == board.enPassantIndex() && typeOf(movingPiece) == PAWN)
+            capturedPiece = board.pieceOn(board.enPassantTargetIndex());
 
 
-        if (!isCapture) {
-            if (move == killerMove1) {
-                foundKM1 = true;
-                return;
-            }
-            if (move == killerMove2) {
-                foundKM2 = true;
-                return;
-            }
-            if (move == killerMove3) {
-                foundKM3 = true;
-                return;
-            }
-            if (move == killerMove4) {
-                foundKM4 = true;
-                return;
-            }
-        }
+        if (isTactical(move)) {
+            int score = 0;
+            if (isCapture)
+                score = mgValue(pieceScores[typeOf(capturedPiece)]) - mgValue(pieceScores[typeOf(movingPiece)])
+                      + captureHistory[typeOf(capturedPiece) + 6 * (to + 64 * movingPiece)];
 
 
-        if (!isCapture) {
-            if (move == counterMoves[movingPiece(prevMove).ordinal() * 64 + to(prevMove).ordinal()]) {
-                counterMove = move;
-                foundCM = true;
-                return;
-            }
-        }
+            if (promotion != NO_PIECE)
+                score += egValue(pieceScores[typeOf(promotion)]);
 
 
-        if (isTactical(move)) {
-            int score = 0;
-            if (isCapture)
-                score = mgValue(pieceScores[capturedPiece.pieceType().ordinal()]) - mgValue(pieceScores[movingPiece.pieceType().ordinal()])
-                      + captureHistory[capturedPiece.pieceType().ordinal() + 6 * (to.ordinal() + 64 * movingPiece.ordinal())];
-
-
-            if (!promotion.equals(Piece.NONE))
-                score += egValue(pieceScores[promotion.pieceType().ordinal()]);
-
-
-            if (see > 0 || !promotion.equals(Piece.NONE)) {
-                goodCaptures[goodCaptureIndex] = move;
-                goodCapturesScore[goodCaptureIndex] = score;
-                goodCapturesSee[goodCaptureIndex] = see;
-                goodCaptureIndex++;
-            } else if (see == 0) {
-                equalCaptures[equalCaptureIndex] = move;
-                equalCapturesScore[equalCaptureIndex] = score;
-                equalCapturesSee[equalCaptureIndex] = see;
-                equalCaptureIndex++;
-            } else {
-                badCaptures[badCaptureIndex] = move;
-                badCapturesScores[badCaptureIndex] = score;
-                badCapturesSee[badCaptureIndex] = see;
-                badCaptureIndex++;
-            }
+            captures[captureIndex++] = pack(score, move);
             return;
         }
 
 
-        nonCaptures[nonCaptureIndex] = move;
-        nonCaptureScore[nonCaptureIndex] = butterflyHistory[to.ordinal() + 64 * (from.ordinal() + 64 * board.sideToMove().ordinal())];
-
-
+        int score = butterflyHistory[to + 64 * (from + 64 * board.sideToMoveIndex())];
         int ply = engine.ply();
         for (int offset : plyOffsets) {
             if (ply - offset >= 0) {
-                int score = engine.tree()[ply - offset].quietHistory[movingPiece.ordinal() * 64 + to.ordinal()];
-                score = (offset == 1 ? score * 2 : score);
-                nonCaptureScore[nonCaptureIndex] += score;
-            }
-        }
-
-
-        nonCapturesSee[nonCaptureIndex] = see;
-        nonCaptureIndex++;
-    }
-
-
-    public void generatePawnMoves(GenerateType type) {
-        Side us = board.sideToMove();
-        Piece ourPawn = Piece.encodePiece(us, PieceType.PAWN);
-        int pawnPush = us.equals(Side.WHITE) ? 8 : -8;
-
-
-        long pushBB = rankBB(relativeRank(us, RANK_2));
-        long promotionBB = rankBB(relativeRank(us, RANK_7));
-
-
-        long bb = board.bitboard(ourPawn);
-        while (bb != 0L) {
-            Square from = squareAt(lsb(bb));
-            Square to = squareAt(from.ordinal() + pawnPush);
-            bb = extractLsb(bb);
-
-
-            // check if no piece at to square
-            if ((to.bitboard() & board.bitboard()) == 0L) {
-                // if one square ahead from promotion
-                if ((rankBB(from) & promotionBB) != 0L) {
-                    if (type.equals(GenerateType.ALL_MOVES) || type.equals(GenerateType.PROMOS)) {
-                        addMove(encodeMove(from, to, ourPawn, Piece.encodePiece(us, PieceType.QUEEN), 0, 0, 0, 0));
-                        addMove(encodeMove(from, to, ourPawn, Piece.encodePiece(us, PieceType.ROOK), 0, 0, 0, 0));
-                        addMove(encodeMove(from, to, ourPawn, Piece.encodePiece(us, PieceType.BISHOP), 0, 0, 0, 0));
-                        addMove(encodeMove(from, to, ourPawn, Piece.encodePiece(us, PieceType.KNIGHT), 0, 0, 0, 0));
-                    }
-                } else {
-                    if (type.equals(GenerateType.ALL_MOVES) || type.equals(GenerateType.NON_CAPTURES)) {
-                        // one push move
-                        addMove(encodeMove(from, to, ourPawn, Piece.NONE, 0, 0, 0, 0));
-                        if ((rankBB(from) & pushBB) != 0L && (squareAt(to.ordinal() + pawnPush).bitboard() & board.bitboard()) == 0L)
-                            // two push move
-                            addMove(encodeMove(from, squareAt(to.ordinal() + pawnPush), ourPawn, Piece.NONE, 0, 1, 0, 0));
-                    }
-                }
-            }
-        }
-    }
-
-
-    public void generatePawnCaptures() {
-        Side us = board.sideToMove();
-        Side them = us.flip();
-        Piece ourPawn = Piece.encodePiece(us, PieceType.PAWN);
-
-
-        long promotionBB = rankBB(relativeRank(us, RANK_7));
-        long bb = board.bitboard(ourPawn);
-        while (bb != 0L) {
-            Square from = squareAt(lsb(bb));
-            bb = extractLsb(bb);
-
-
-            long attacks = pawnAttacks[us.ordinal()][from.ordinal()];
-            if (board.enPassant() != Square.NONE && (attacks & board.enPassant().bitboard()) != 0L)
-                addMove(encodeMove(from, board.enPassant(), ourPawn, Piece.NONE, 1, 0 , 1, 0));
-
-
-            attacks &= board.bitboard(them);
-
-
-            while (attacks != 0L) {
-                Square to = squareAt(lsb(attacks));
-                attacks = extractLsb(attacks);
-
-
-                // pawn capture with promotion
-                if ((rankBB(from) & promotionBB) != 0L) {
-                    addMove(encodeMove(from, to, ourPawn, Piece.encodePiece(us, PieceType.QUEEN), 1, 0, 0, 0));
-                    addMove(encodeMove(from, to, ourPawn, Piece.encodePiece(us, PieceType.ROOK), 1, 0, 0, 0));
-                    addMove(encodeMove(from, to, ourPawn, Piece.encodePiece(us, PieceType.BISHOP), 1, 0, 0, 0));
-                    addMove(encodeMove(from, to, ourPawn, Piece.encodePiece(us, PieceType.KNIGHT), 1, 0, 0, 0));
-                } else
-                    addMove(encodeMove(from, to, ourPawn, Piece.NONE, 1, 0, 0, 0));
+                int history = engine.tree()[ply - offset].quietHistory[movingPiece * 64 + to];
+                score += (offset == 1 ? history * 2 : history);
             }
         }
-    }
-
-
-    public void generateKnightMoves(GenerateType type) {
-        Side us = board.sideToMove();
-        Side them = us.flip();
-        Piece ourKnight = Piece.encodePiece(us, PieceType.KNIGHT);
-
 
-        long bb = board.bitboard(ourKnight);
-        while (bb != 0L) {
-            Square from = squareAt(lsb(bb));
-            bb = extractLsb(bb);
 
-
-            long attacks = knightAttacks[from.ordinal()] & ~board.bitboard(us);
-            while (attacks != 0L) {
-                Square to = squareAt(lsb(attacks));
-                attacks = extractLsb(attacks);
-
-
-                if ((to.bitboard() & board.bitboard(them)) != 0L) {
-                    if (type.equals(GenerateType.ALL_MOVES) || type.equals(GenerateType.CAPTURES))
-                        addMove(encodeMove(from, to, ourKnight, Piece.NONE, 1, 0, 0, 0));
-                } else {
-                    if (type.equals(GenerateType.ALL_MOVES) || type.equals(GenerateType.NON_CAPTURES))
-                        addMove(encodeMove(from, to, ourKnight, Piece.NONE, 0, 0, 0, 0));
-                }
-            }
-        }
+        nonCaptures[nonCaptureIndex++] = pack(score, move);
     }
 
 
-    public void generateBishopAttacks(GenerateType type) {
-        Side us = board.sideToMove();
-        Side them = us.flip();
-
-
-        Piece ourBishop = Piece.encodePiece(us, PieceType.BISHOP);
-        // include queen on bishop attacks
-        Piece ourQueen = Piece.encodePiece(us, PieceType.QUEEN);
-
-
-        long bb = board.bitboard(ourBishop) | board.bitboard(ourQueen);
-        while (bb != 0L) {
-            Square from = squareAt(lsb(bb));
-            Piece piece = board.pieceAt(from).pieceType().equals(PieceType.BISHOP) ? ourBishop : ourQueen;
-            bb = extractLsb(bb);
-
-
-            long attacks = bishopAttacks(from, board.bitboard()) & ~board.bitboard(us);
-            while (attacks != 0L) {
-                Square to = squareAt(lsb(attacks));
-                attacks = extractLsb(attacks);
-
-
-                if ((to.bitboard() & board.bitboard(them)) != 0L) {
-                    if (type.equals(GenerateType.ALL_MOVES) || type.equals(GenerateType.CAPTURES))
-                        addMove(encodeMove(from, to, piece, Piece.NONE, 1, 0, 0, 0));
-                } else {
-                    if (type.equals(GenerateType.ALL_MOVES) || type.equals(GenerateType.NON_CAPTURES))
-                        addMove(encodeMove(from, to, piece, Piece.NONE, 0, 0, 0, 0));
-                }
-            }
-        }
-    }
-
-
-    public void generateRookAttacks(GenerateType type) {
-        Side us = board.sideToMove();
-        Side them = us.flip();
-
-
-        Piece ourRook = Piece.encodePiece(us, PieceType.ROOK);
-        // include queen on rook attacks
-        Piece ourQueen = Piece.encodePiece(us, PieceType.QUEEN);
-
-
-        long bb = board.bitboard(ourRook) | board.bitboard(ourQueen);
-        while (bb != 0L) {
-            Square from = squareAt(lsb(bb));
-            Piece piece = board.pieceAt(from).pieceType().equals(PieceType.ROOK) ? ourRook : ourQueen;
-            bb = extractLsb(bb);
-
-
-            long attacks = rookAttacks(from, board.bitboard()) & ~board.bitboard(us);
-            while (attacks != 0L) {
-                Square to = squareAt(lsb(attacks));
-                attacks = extractLsb(attacks);
-
-
-                if ((to.bitboard() & board.bitboard(them)) != 0L) {
-                    if (type.equals(GenerateType.ALL_MOVES) || type.equals(GenerateType.CAPTURES))
-                        addMove(encodeMove(from, to, piece, Piece.NONE, 1, 0, 0, 0));
-                } else {
-                    if (type.equals(GenerateType.ALL_MOVES) || type.equals(GenerateType.NON_CAPTURES))
-                        addMove(encodeMove(from, to, piece, Piece.NONE, 0, 0, 0, 0));
-                }
-            }
-        }
-    }
-
-
-    public void generateKingMoves(GenerateType type) {
-        Side us = board.sideToMove();
-        Side them = us.flip();
-        Piece ourKing = Piece.encodePiece(us, PieceType.KING);
-
-
-        long bb = board.bitboard(ourKing);
-        Square from = squareAt(lsb(bb));
-
-
-        long attacks = kingAttacks[from.ordinal()] & ~board.bitboard(us);
-        while (attacks != 0L) {
-            Square to = squareAt(lsb(attacks));
-            attacks = extractLsb(attacks);
-
-
-            if ((to.bitboard() & board.bitboard(them)) != 0L) {
-                if (type.equals(GenerateType.ALL_MOVES) || type.equals(GenerateType.CAPTURES))
-                    addMove(encodeMove(from, to, ourKing, Piece.NONE, 1, 0, 0, 0));
-            } else {
-                if (type.equals(GenerateType.ALL_MOVES) || type.equals(GenerateType.NON_CAPTURES))
-                    addMove(encodeMove(from, to, ourKing, Piece.NONE, 0, 0, 0, 0));
-            }
-        }
-    }
-
-
-    public void generateCastlingMoves() {
-        Side us = board.sideToMove();
-        Side them = us.flip();
-
-
-        Piece ourKing = Piece.encodePiece(us, PieceType.KING);
-        int kingCastling = us.equals(Side.WHITE)
-                ? CastlingRight.WHITE_KING.bit()
-                : CastlingRight.BLACK_KING.bit();
-        int queenCastling = us.equals(Side.WHITE)
-                ? CastlingRight.WHITE_QUEEN.bit()
-                : CastlingRight.BLACK_QUEEN.bit();
-
-
-        // check if king can castle king side
-        if ((board.castlingRight() & kingCastling) != 0) {
-            if ((board.bitboard() & squareBB(relativeSquare(us, F1))) == 0L && (board.bitboard() & squareBB(relativeSquare(us, G1))) == 0L) {
-                if (!board.isSquareAttackedBy(them, relativeSquare(us, E1)) && !board.isSquareAttackedBy(them, relativeSquare(us, F1)))
-                    addMove(encodeMove(relativeSquare(us, E1), relativeSquare(us, G1), ourKing, Piece.NONE, 0, 0, 0, 1));
-            }
+    private void generate(int type) {
+        if (!sortMoves) {
+            allMovesLength = MoveGenerator.generate(board, type, allMoves, allMovesLength);
+            return;
         }
 
 
-        // check if king can castle queen side
-        if ((board.castlingRight() & queenCastling) != 0) {
-            if ((board.bitboard() & squareBB(relativeSquare(us, D1))) == 0L && (board.bitboard() & squareBB(relativeSquare(us, C1))) == 0L && (board.bitboard() & squareBB(relativeSquare(us, B1))) == 0L) {
-                if (!board.isSquareAttackedBy(them, relativeSquare(us, E1)) && !board.isSquareAttackedBy(them, relativeSquare(us, D1)))
-                    addMove(encodeMove(relativeSquare(us, E1), relativeSquare(us, C1), ourKing, Piece.NONE, 0, 0, 0, 1));
-            }
-        }
+        // when sorting, allMoves is only scratch space for the generator
+        final int size = MoveGenerator.generate(board, type, allMoves, 0);
+        for (int i = 0; i < size; i++)
+            addMove(allMoves[i]);
     }
 
 
     public void generateMoves() {
-        generatePawnCaptures();
-        generatePawnMoves(GenerateType.ALL_MOVES);
-        generateKnightMoves(GenerateType.ALL_MOVES);
-        generateBishopAttacks(GenerateType.ALL_MOVES);
-        generateRookAttacks(GenerateType.ALL_MOVES);
-        generateKingMoves(GenerateType.ALL_MOVES);
-        generateCastlingMoves();
+        generate(MoveGenerator.ALL_MOVES);
     }
 
 
     public void generateCaptures() {
-        generatePawnCaptures();
-        generatePawnMoves(GenerateType.PROMOS);
-        generateKnightMoves(GenerateType.CAPTURES);
-        generateBishopAttacks(GenerateType.CAPTURES);
-        generateRookAttacks(GenerateType.CAPTURES);
-        generateKingMoves(GenerateType.CAPTURES);
+        generate(MoveGenerator.CAPTURES);
     }
 
 
     public void generateNonCaptures() {
-        generatePawnMoves(GenerateType.NON_CAPTURES);
-        generateKnightMoves(GenerateType.NON_CAPTURES);
-        generateBishopAttacks(GenerateType.NON_CAPTURES);
-        generateRookAttacks(GenerateType.NON_CAPTURES);
-        generateKingMoves(GenerateType.NON_CAPTURES);
-        generateCastlingMoves();
+        generate(MoveGenerator.NON_CAPTURES);
     }
 
 
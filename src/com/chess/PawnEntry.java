@@ -0,0 +1,34 @@
+package com.chess;
+
+import java.util.Arrays;
+
+import static com.chess.BoardConstants.*;
+
+public class PawnEntry {
+
+    public long key;
+    public int score;
+    public int passedPawnCount;
+    public int blockedPawnCount;
+    public final long[] passedPawns = new long[2];
+    public final long[] pawnAttackSpan = new long[2];
+
+
+    // king safety depends on the king square and castling rights too
+    public final int[] kingSquares = new int[2];
+    public final int[] castlingRights = new int[2];
+    public final int[] kingSafety = new int[2];
+
+
+    public void clear(long key) {
+        this.key = key;
+        score = 0;
+        passedPawnCount = 0;
+        blockedPawnCount = 0;
+        Arrays.fill(passedPawns, 0L);
+        Arrays.fill(pawnAttackSpan, 0L);
+        Arrays.fill(kingSquares, NO_SQUARE);
+    }
+
+
+}
@@ -0,0 +1,23 @@
+package com.chess;
+
+public class PawnTable {
+
+    // pawn structures repeat a lot, a small table per thread is enough
+    private static final int SIZE = 16384;
+    private final PawnEntry[] entries;
+
+
+    public PawnTable() {
+        entries = new PawnEntry[SIZE];
+        for (int i = 0; i < SIZE; i++)
+            entries[i] = new PawnEntry();
+    }
+
+
+    // the caller checks the key and fills the entry on a miss
+    public PawnEntry probe(long pawnKey) {
+        return entries[(int) pawnKey & (SIZE - 1)];
+    }
+
+
+}
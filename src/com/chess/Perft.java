@@ -0,0 +1,73 @@
+package com.chess;
+
+import static com.chess.SearchConstants.*;
+
+public class Perft {
+
+    /*
+                      ! Perft !
+       counts the leaves of the legal move tree to a fixed depth, the
+       usual check of move generation. it needs one move buffer per ply
+       and nothing else, the board is only walked through
+                                                                     */
+    private final Board board;
+    private final int[][] moves;
+
+
+    public Perft(Board board) {
+        this.board = board;
+        moves = new int[maxPly][maxMoves];
+    }
+
+
+    // prints the count below every root move, like the divide command of other engines
+    public long perft(int depth) {
+        if (depth <= 0)
+            return 1L;
+
+
+        long start = System.currentTimeMillis();
+        long nodes = 0L;
+        final int size = MoveGenerator.generate(board, MoveGenerator.ALL_MOVES, moves[0], 0);
+
+
+        for (int i = 0; i < size; i++) {
+            final int move = moves[0][i];
+            board.doMove(move);
+            long n = perft(depth - 1, 1);
+            nodes += n;
+            board.undoMove();
+
+
+            Move.printMove(move);
+            System.out.printf(": %d\n", n);
+        }
+
+
+        System.out.println();
+        System.out.printf("Nodes searhed: %d\nTime: %d", nodes, System.currentTimeMillis() - start);
+        System.out.println();
+        return nodes;
+    }
+
+
+    private long perft(int depth, int ply) {
+        if (depth <= 0)
+            return 1L;
+        // leaves are counted, not played
+        if (depth == 1)
+            return board.countLegalMoves();
+
+
+        long nodes = 0L;
+        final int size = MoveGenerator.generate(board, MoveGenerator.ALL_MOVES, moves[ply], 0);
+        for (int i = 0; i < size; i++) {
+            board.doMove(moves[ply][i]);
+            nodes += perft(depth - 1, ply + 1);
+            board.undoMove();
+        }
+        return nodes;
+    }
+
+
+}
@@ -13,6 +13,9 @@ public class RootMove {
     public int selDepth;
     public int score;
     public int prevScore;
+    public int depth;
+    public int bestMove;
+    public int ponder;
 
     public RootMove(Engine engine) {
         pvTable = new int[maxPly * maxPly];
@@ -26,6 +29,9 @@ public class RootMove {
         pvLength = null;
         pvTable = new int[maxPly * maxPly];
         pvLength = new int[maxPly];
+        depth = 0;
+        bestMove = 0;
+        ponder = 0;
     }
 
 
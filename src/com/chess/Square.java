@@ -58,6 +58,9 @@ public enum Square {
     public static Square encodeSquare(Rank rank, File file) {
         return allSquares[rank.ordinal() * 8 + file.ordinal()];
     }
+    public static int distance(int s1, int s2) {
+        return squareDistance[s1][s2];
+    }
     public static Square relativeSquare(Side side, Square square) {
         return encodeSquare(Rank.relativeRank(side, square), square.file);
     }
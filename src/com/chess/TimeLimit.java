@@ -5,8 +5,11 @@ import java.util.Arrays;
 public class TimeLimit {
 
     public long[] time = new long[2], inc = new long[2];
-    public int depth = 0, nodes = 0, mate = 0, mtg = 0, bookDepth = 0;
+    public int depth = 0, mate = 0, mtg = 0, bookDepth = 0;
+    public long nodes = 0L;
     public long moveTime = 0L;
+    // cleared by ponderhit, also when it arrives before the search has started
+    public volatile boolean ponder = false;
 
 
     @Override
@@ -19,6 +22,7 @@ public class TimeLimit {
                 ",\n\tmoveTime: " + moveTime +
                 ",\n\ttime: " + Arrays.toString(time) +
                 ",\n\tinc: " + Arrays.toString(inc) +
+                ",\n\tponder: " + ponder +
                 "\n}";
     }
 
@@ -1,47 +1,260 @@
 package com.chess;
 
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
 public class TimeManager {
 
-    private long startTime, stopTime;
-    private boolean stopped;
+    /*
+                      ! Stopping the search !
+       the stop flag is set by the uci thread, the main search thread
+       and the timer, and read by every search thread, so it is
+       volatile. the main thread compares the clock with the deadline
+       every CHECK_NODES nodes, and a timer thread sleeping until the
+       deadline stops the search when no nodes are being visited
+                                                                     */
+    public static final int CHECK_NODES = 1024;
+    private static final ScheduledThreadPoolExecutor timer = new ScheduledThreadPoolExecutor(1, r -> {
+        Thread thread = new Thread(r, "search timer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+
+    static {
+        timer.setRemoveOnCancelPolicy(true);
+    }
+
+
+    // nanoTime values, the deadline is also read by the timer thread
+    private long startTime;
+    private volatile long deadline;
+    private volatile boolean timeSet;
+    private volatile boolean stopped;
+    private ScheduledFuture<?> wakeup;
+
+
+    /*
+                      ! Soft and hard limits !
+       with a clock the search gets a target time, the soft limit, and
+       a maximum it never goes past, the hard limit, which is the
+       deadline above. after every iteration the main thread scales
+       the soft limit by how settled the search looks: a best move that
+       keeps coming back and a steady score shrink it, a new best move,
+       a falling score, a fail low or the best move losing its share of
+       the root nodes stretch it. no iteration is started past half of
+       the scaled target since the next one takes about as long as all
+       the ones before it. a fixed movetime has no soft limit
+                                                                     */
+    private long softLimit, hardLimit;
+    private boolean adaptive;
+    private int moveOverhead = 10;
+
+
+    /*
+                      ! Node limits !
+       go nodes stops the search once all threads together have
+       visited that many nodes. with nodestime set, time limits are
+       turned into nodes at that many nodes per millisecond and time is
+       measured in nodes searched, so a timed game plays the same moves
+       however loaded the host is
+                                                                     */
+    private long nodeLimit;
+    private int nodesTime;
+
+
+    /*
+                      ! Pondering !
+       go ponder searches the expected reply without limits. on
+       ponderhit the limits of the go command start to apply to the
+       running search, so nothing is searched twice. the deadline is
+       counted from the ponderhit and the soft limit from the go, which
+       makes the pondering time a bonus. when an iteration would have
+       stopped while pondering, the ponderhit stops the search at once
+                                                                     */
+    private volatile boolean pondering;
+    private boolean stopOnPonderhit;
+    private boolean timeLimited;
+
+
+    private int previousBestMove;
+    private int previousScore;
+    private double previousNodeShare;
+    private int stableIterations;
+    private double bestMoveChanges;
 
 
-    public void initialize(TimeLimit limit, Board board) {
-        startTime = System.currentTimeMillis();
+    public synchronized void initialize(TimeLimit limit, Board board) {
+        startTime = System.nanoTime();
+        nodeLimit = limit.nodes;
         Side us = board.sideToMove();
         limit.mtg = limit.mtg == 0 ? 30 : limit.mtg;
 
 
         if (limit.moveTime == 0L && limit.time[us.ordinal()] > 0L) {
-            long timeLeft = Math.max(1, limit.time[us.ordinal()] + limit.inc[us.ordinal()] * (limit.mtg - 1) - 10L * (2 + limit.mtg));
-            limit.moveTime = timeLeft / limit.mtg;
-            stopTime = startTime + limit.moveTime;
-        } else if (limit.moveTime > 0L)
-            stopTime = startTime + limit.moveTime;
+            long time = limit.time[us.ordinal()];
+            long timeLeft = Math.max(1, time + limit.inc[us.ordinal()] * (limit.mtg - 1) - (long) moveOverhead * (2 + limit.mtg));
+            softLimit = timeLeft / limit.mtg;
+            // a few targets at most and never most of the clock
+            hardLimit = Math.max(softLimit, Math.min(5 * softLimit, time * 3 / 4 - moveOverhead));
+            adaptive = true;
+            timeLimited = true;
+        } else if (limit.moveTime > 0L) {
+            softLimit = hardLimit = Math.max(1, limit.moveTime - moveOverhead);
+            timeLimited = true;
+        }
+
+
+        // a ponderhit that came before this leaves a normal search
+        pondering = limit.ponder;
+        if (timeLimited && !pondering)
+            setDeadline(hardLimit);
+    }
+
+
+    public synchronized void ponderhit() {
+        if (!pondering)
+            return;
+
+
+        pondering = false;
+        if (stopOnPonderhit)
+            stop();
+        else if (timeLimited)
+            setDeadline(hardLimit);
+        notifyAll();
     }
 
 
-    public void resetTimeControl() {
-        startTime = 0L;
-        stopTime = 0L;
+    // a search that ends by itself while pondering keeps its move until ponderhit or stop
+    public synchronized void waitForPonderhit() {
+        while (pondering && !stopped) {
+            try { wait(); }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+
+    // called by the main thread after every completed iteration, tells whether to stop
+    public boolean iterationDone(int bestMove, int score, double nodeShare, boolean failedLow, long nodes) {
+        bestMoveChanges /= 2;
+        if (bestMove == previousBestMove)
+            stableIterations++;
+        else {
+            if (previousBestMove != 0)
+                bestMoveChanges += 1.0;
+            stableIterations = 0;
+        }
+
+
+        final int scoreDrop = previousBestMove == 0 ? 0 : previousScore - score;
+        final double shareDrop = previousNodeShare - nodeShare;
+        previousBestMove = bestMove;
+        previousScore = score;
+        previousNodeShare = nodeShare;
+        if (!adaptive)
+            return false;
+
+
+        double scale = 1.4 - 0.09 * Math.min(stableIterations, 10);
+        scale *= 1.0 + bestMoveChanges;
+        // a drop of a pawn (208) adds half, a rise takes off up to a quarter
+        scale *= 1.0 + Math.max(-0.25, Math.min(0.5, scoreDrop / 416.0));
+        if (failedLow)
+            scale *= 1.3;
+        if (shareDrop > 0.25)
+            scale *= 1.3;
+
+
+        long target = Math.min((long) (softLimit * scale), hardLimit);
+        long searched = nodesTime > 0 ? nodes / nodesTime : elapsed();
+        return searched > target / 2 && !deferStop();
+    }
+
+
+    private synchronized boolean deferStop() {
+        if (pondering)
+            stopOnPonderhit = true;
+        return pondering;
+    }
+
+
+    private void setDeadline(long moveTime) {
+        if (nodesTime > 0) {
+            long nodes = Math.max(1L, moveTime * nodesTime);
+            nodeLimit = nodeLimit == 0L ? nodes : Math.min(nodeLimit, nodes);
+            return;
+        }
+
+
+        deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(moveTime);
+        timeSet = true;
+        // a late wakeup from an earlier search finds a later deadline or none and does nothing
+        wakeup = timer.schedule(this::checkTime, moveTime, TimeUnit.MILLISECONDS);
+    }
+
+
+    public synchronized void resetTimeControl() {
+        if (wakeup != null)
+            wakeup.cancel(false);
+        wakeup = null;
+        timeSet = false;
+        startTime = System.nanoTime();
+        deadline = 0L;
         stopped = false;
+
+
+        softLimit = hardLimit = 0L;
+        adaptive = false;
+        timeLimited = false;
+        nodeLimit = 0L;
+        pondering = false;
+        stopOnPonderhit = false;
+        previousBestMove = 0;
+        previousScore = 0;
+        previousNodeShare = 0.0;
+        stableIterations = 0;
+        bestMoveChanges = 0.0;
     }
 
 
-    public void stop() {
+    public void checkTime() {
+        if (timeSet && System.nanoTime() - deadline >= 0L)
+            stopped = true;
+    }
+    public void checkNodes(long nodes) {
+        if (nodes >= nodeLimit && !pondering)
+            stopped = true;
+    }
+    public boolean nodeLimited() {
+        return nodeLimit != 0L;
+    }
+
+
+    public void setMoveOverhead(int moveOverhead) {
+        this.moveOverhead = moveOverhead;
+    }
+    public void setNodesTime(int nodesTime) {
+        this.nodesTime = nodesTime;
+    }
+
+
+    public synchronized void stop() {
         stopped = true;
+        notifyAll();
     }
     public long elapsed() {
-        return System.currentTimeMillis() - startTime;
-    }
-    public long stopTime() {
-        return stopTime;
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime);
     }
     public boolean didStopped() {
         return stopped;
     }
     public boolean timeSet() {
-        return stopTime != 0L;
+        return timeSet;
     }
 
 
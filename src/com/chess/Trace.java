@@ -8,29 +8,33 @@ import static com.chess.ScoreConstants.*;
 
 public class Trace {
 
-    private static HashMap<String, Integer[]> scores = new HashMap<>();
-    private static boolean traceEvaluation = false;
-    static { clear(); }
+    private final HashMap<String, Integer[]> scores = new HashMap<>();
+    private boolean traceEvaluation = false;
 
 
-    private static int get(String term, int side) {
+    public Trace() {
+        clear();
+    }
+
+
+    private int get(String term, int side) {
         return scores.get(term)[side];
     }
     public static double cp(int value) {
         return (double) value / egValue(pawn);
     }
-    public static void startTracing() {
+    public void startTracing() {
         traceEvaluation = true;
     }
-    public static void endTracing() {
+    public void endTracing() {
         traceEvaluation = false;
     }
-    public static boolean isTracing() {
+    public boolean isTracing() {
         return traceEvaluation;
     }
 
 
-    public static void clear() {
+    public void clear() {
         scores.put("Material", new Integer[]{0, 0, 0});
         scores.put("Imbalance", new Integer[]{0, 0, 0});
         scores.put("Pawns", new Integer[]{0, 0, 0});
@@ -48,7 +52,7 @@ public class Trace {
     }
 
 
-    private static double[] getStats(String term) {
+    private double[] getStats(String term) {
         if (term.equals("Material") || term.equals("Imbalance") || term.equals("Winnable") || term.equals("Total"))
             return new double[]{cp(mgValue(get(term, 2))), cp(egValue(get(term, 2)))};
 
@@ -65,13 +69,13 @@ public class Trace {
     }
 
 
-    public static void set(String term, int side, int score) {
+    public void set(String term, int side, int score) {
         if (traceEvaluation)
             scores.get(term)[side] = score;
     }
 
 
-    public static void printTrace() {
+    public void printTrace() {
         double[] materialStats = getStats("Material");
         double[] imbalanceStats = getStats("Imbalance");
         double[] pawnsStats = getStats("Pawns");
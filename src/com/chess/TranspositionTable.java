@@ -1,73 +1,272 @@
 package com.chess;
 
-import java.util.stream.Stream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+
+import static java.nio.file.StandardOpenOption.*;
+
 import static com.chess.SearchConstants.*;
+import static com.chess.IntegerUtil.*;
 
 public class TranspositionTable {
 
+    /*
+              ! Entry representation !
+       every entry is two longs, a check word followed by a data word
+
+       data word
+         bits  0-23   move (from, to, piece, promotion and flags)
+         bits 24-39   value
+         bits 40-55   static evaluation
+         bits 56-61   depth
+         bits 62-63   bound
+
+       check word
+         bits  0-7    generation
+         bits  8-63   key xor data word
+
+       a torn write of the two words fails the key check, so the
+       table can be shared by search threads without any locking
+
+       the table lives off-heap in chunks of 1GB direct buffers so
+       sizes past the 2GB array limit can be addressed with a long
+
+       with a hash file the chunks are mapped from that file instead,
+       and engine processes mapping the same file share one table
+                                                                     */
+    private static final int ENTRY_SIZE = 2 * Long.BYTES;
+    // four entries fill a 64 byte cache line
+    private static final int BUCKET_ENTRIES = 4;
+    private static final int BUCKET_SIZE = BUCKET_ENTRIES * ENTRY_SIZE;
+    private static final int CHUNK_SHIFT = 24;
+    private static final long CHUNK_BUCKETS = 1L << CHUNK_SHIFT;
+    private static final byte[] ZEROES = new byte[0x10000];
+    private static final long GENERATION_MASK = 0xFFL;
+    private static final long KEY_MASK = ~GENERATION_MASK;
+    private static final int MAX_DEPTH = 63;
+
+
     public TranspositionTable(int MB) {
         resize(MB);
     }
-    public TTEntry[] entries() {
-        return entries;
-    }
-    public long recordCount() {
-        return recordCount;
+    public long hashSize() {
+        return buckets * BUCKET_ENTRIES;
     }
-    public void recordCount(int recordCount) {
-        this.recordCount = recordCount;
-    }
-    public int hashSize() {
-        return size;
+
+
+    private ByteBuffer[] chunks;
+    private long buckets;
+    private int generation;
+    private int MB;
+    private Path file;
+
+
+    public boolean isMapped() {
+        return file != null;
     }
 
 
-    private TTEntry[] entries;
-    private long recordCount;
-    private int size;
+    public void setFile(String path) {
+        file = path == null || path.isEmpty() || path.equals("<empty>") ? null : Path.of(path);
+        resize(MB);
+    }
 
 
     public void resize(int MB) {
-        // 28 = sizeof(TTEntry)
-        size = 0x100000 * MB / 28;
-        while (!clear())
-            resize(MB / 2);
+        // direct buffers are limited by -XX:MaxDirectMemorySize, which defaults to the max heap size
+        this.MB = MB;
+        chunks = null;
+        generation = 0;
+        buckets = 0x100000L * MB / BUCKET_SIZE;
+        try {
+            chunks = file == null ? allocate(buckets) : map(file, buckets);
+        }
+        catch (OutOfMemoryError e) {
+            buckets = 0x100000L / BUCKET_SIZE;
+            chunks = allocate(buckets);
+            throw new IllegalStateException("unable to allocate " + MB + "MB hash, -XX:MaxDirectMemorySize may be too low");
+        }
+        catch (IOException e) {
+            Path failed = file;
+            file = null;
+            chunks = allocate(buckets);
+            throw new IllegalStateException("unable to map hash file " + failed + ", using memory instead");
+        }
+    }
+    private static ByteBuffer[] allocate(long buckets) {
+        ByteBuffer[] chunks = new ByteBuffer[(int) ((buckets + CHUNK_BUCKETS - 1) >>> CHUNK_SHIFT)];
+        for (int i = 0; i < chunks.length; i++) {
+            long size = Math.min(CHUNK_BUCKETS, buckets - (i * CHUNK_BUCKETS)) * BUCKET_SIZE;
+            chunks[i] = ByteBuffer.allocateDirect((int) size).order(ByteOrder.nativeOrder());
+        }
+        return chunks;
+    }
+    private static ByteBuffer[] map(Path file, long buckets) throws IOException {
+        // the mappings stay valid after the channel is closed
+        ByteBuffer[] chunks = new ByteBuffer[(int) ((buckets + CHUNK_BUCKETS - 1) >>> CHUNK_SHIFT)];
+        try (FileChannel channel = FileChannel.open(file, CREATE, READ, WRITE)) {
+            for (int i = 0; i < chunks.length; i++) {
+                long size = Math.min(CHUNK_BUCKETS, buckets - (i * CHUNK_BUCKETS)) * BUCKET_SIZE;
+                chunks[i] = channel.map(FileChannel.MapMode.READ_WRITE, i * CHUNK_BUCKETS * BUCKET_SIZE, size).order(ByteOrder.nativeOrder());
+            }
+        }
+        return chunks;
     }
 
 
-    public boolean clear() {
-        try {
-            entries = null;
-            entries = Stream.generate(TTEntry::new).limit(size).toArray(TTEntry[]::new);
+    public void clear() {
+        clear(1);
+    }
+    public void clear(int threads) {
+        // every thread zeroes its own slice of the buckets
+        Thread[] workers = new Thread[threads];
+        for (int i = 0; i < threads; i++) {
+            long start = buckets * i / threads;
+            long end = buckets * (i + 1) / threads;
+            workers[i] = new Thread(() -> clear(start, end));
+            workers[i].start();
+        }
+        for (Thread worker : workers) {
+            try { worker.join(); }
+            catch (InterruptedException e) {}
         }
-        catch (OutOfMemoryError e) { return false; }
-        return true;
+        generation = 0;
+    }
+    private void clear(long start, long end) {
+        for (long bucket = start; bucket < end; ) {
+            ByteBuffer chunk = chunks[(int) (bucket >>> CHUNK_SHIFT)];
+            int offset = (int) (bucket & (CHUNK_BUCKETS - 1)) * BUCKET_SIZE;
+            int length = (int) Math.min(end - bucket, Math.min(CHUNK_BUCKETS - (bucket & (CHUNK_BUCKETS - 1)), ZEROES.length / BUCKET_SIZE));
+            chunk.put(offset, ZEROES, 0, length * BUCKET_SIZE);
+            bucket += length;
+        }
+    }
+
+
+    public void newSearch() {
+        generation = (generation + 1) & (int) GENERATION_MASK;
+    }
+
+
+    private long bucketIndex(long key) {
+        return ((key & 0xFFFFFFFFL) * buckets) >>> 32;
+    }
+    private ByteBuffer chunk(long bucket) {
+        return chunks[(int) (bucket >>> CHUNK_SHIFT)];
+    }
+    private static int offset(long bucket) {
+        return (int) (bucket & (CHUNK_BUCKETS - 1)) * BUCKET_SIZE;
+    }
+    private int age(long check) {
+        return (generation - (int) (check & GENERATION_MASK)) & (int) GENERATION_MASK;
     }
 
 
     public void store(int ply, int value, int depth, int bound, int move, int eval, long key) {
-        TTEntry tte = entries[(int) (key & Integer.MAX_VALUE) % size];
+        final long bucket = bucketIndex(key);
+        final ByteBuffer chunk = chunk(bucket);
+        final int offset = offset(bucket);
+        int replace = offset;
+        int replaceScore = Integer.MAX_VALUE;
+
+
+        for (int i = offset; i < offset + BUCKET_SIZE; i += ENTRY_SIZE) {
+            long check = chunk.getLong(i);
+            long data = chunk.getLong(i + Long.BYTES);
+
+
+            if (data == 0L) {
+                replace = i;
+                break;
+            }
+
+
+            if (((check ^ data ^ key) & KEY_MASK) == 0L) {
+                // keep the deeper result of this position unless it is stale
+                if (bound != BOUND_EXACT && depth + 4 <= depth(data) && age(check) == 0)
+                    return;
+                if (move == 0)
+                    move = move(data);
+                replace = i;
+                break;
+            }
+
+
+            // prefer to replace shallow entries from older searches
+            int score = depth(data) - 8 * age(check);
+            if (score < replaceScore) {
+                replaceScore = score;
+                replace = i;
+            }
+        }
+
+
         if (value >= winValueInMaxPly)
             value += ply;
         if (value <= lossValueInMaxPly)
             value -= ply;
 
 
-        tte.value = value;
-        tte.depth = depth;
-        tte.bound = bound;
-        tte.move = move;
-        tte.eval = eval;
-        tte.key = key;
-        recordCount++;
+        long data = packMove(move)
+                  | ((long) (value & 0xFFFF) << 24)
+                  | ((long) (eval & 0xFFFF) << 40)
+                  | ((long) Math.min(depth, MAX_DEPTH) << 56)
+                  | ((long) bound << 62);
+        chunk.putLong(replace + Long.BYTES, data);
+        chunk.putLong(replace, ((data ^ key) & KEY_MASK) | generation);
+    }
+
+
+    public long probe(long key) {
+        final long bucket = bucketIndex(key);
+        final ByteBuffer chunk = chunk(bucket);
+        final int offset = offset(bucket);
+        for (int i = offset; i < offset + BUCKET_SIZE; i += ENTRY_SIZE) {
+            long check = chunk.getLong(i);
+            long data = chunk.getLong(i + Long.BYTES);
+            if (data != 0L && ((check ^ data ^ key) & KEY_MASK) == 0L) {
+                if (age(check) != 0)
+                    chunk.putLong(i, (check & KEY_MASK) | generation);
+                return data;
+            }
+        }
+        return 0L;
+    }
+
+
+    public int hashfull() {
+        // permille of the first thousand entries used by the current search
+        int count = 0;
+        ByteBuffer chunk = chunks[0];
+        for (int i = 0; i < 1000 / BUCKET_ENTRIES * BUCKET_SIZE && i < chunk.capacity(); i += ENTRY_SIZE)
+            count += _int(chunk.getLong(i + Long.BYTES) != 0L && age(chunk.getLong(i)) == 0);
+        return count;
+    }
+
+
+    // squares never exceed 63 in a move, so the unused high bit of from and to is dropped
+    private static long packMove(int move) {
+        return (move & 0x3F) | ((move >>> 1) & 0xFC0) | ((long) (move >>> 14) << 12);
     }
 
 
-    public TTEntry probe(long key) {
-        TTEntry tte = entries[(int) (key & Integer.MAX_VALUE) % size];
-        if (tte.key == key)
-            return tte;
-        return null;
+    public static int move(long data) {
+        return (int) (data & 0x3F) | ((int) (data & 0xFC0) << 1) | ((int) (data >>> 12 & 0xFFF) << 14);
+    }
+    public static int value(long data) {
+        return (short) (data >>> 24);
+    }
+    public static int eval(long data) {
+        return (short) (data >>> 40);
+    }
+    public static int depth(long data) {
+        return (int) (data >>> 56) & MAX_DEPTH;
+    }
+    public static int bound(long data) {
+        return (int) (data >>> 62);
     }
 
 
@@ -30,6 +30,7 @@ public class UCI {
 
 
     private static int bookDepth = 8;
+    private static TimeLimit lastLimit;
     private static void respond(String input) {
     try {
         ArrayList<String> args = new ArrayList<>(Arrays.asList(input.split(" ")));
@@ -45,15 +46,20 @@ public class UCI {
                 if (args.size() > 1) {
                     if (args.contains("perft")) {
                         int depth = Integer.parseInt(after(args, "perft"));
-                        board.perft(depth);
+                        new Perft(board).perft(depth);
                         return;
                     }
                     if (args.contains("infinite"))
                         limit.bookDepth = 0;
+                    // a book move would be sent as bestmove before the ponderhit
+                    if (args.contains("ponder")) {
+                        limit.ponder = true;
+                        limit.bookDepth = 0;
+                    }
                     if (args.contains("depth"))
                         limit.depth = Integer.parseInt(after(args, "depth"));
                     if (args.contains("nodes"))
-                        limit.nodes = Integer.parseInt(after(args, "nodes"));
+                        limit.nodes = Long.parseLong(after(args, "nodes"));
                     if (args.contains("mate"))
                         limit.mate = Integer.parseInt(after(args, "mate"));
                     if (args.contains("movestogo"))
@@ -71,6 +77,9 @@ public class UCI {
                 }
 
 
+                lastLimit = limit;
+                // reset here and not in the search thread, which would lose a stop or ponderhit sent right after go
+                engine.timeManager().resetTimeControl();
                 new Thread(() -> engine.search(limit)).start();
             }
             case "setoption" -> {
@@ -80,23 +89,43 @@ public class UCI {
 
                 switch (name.toLowerCase()) {
                     case "clear hash" -> {
-                        engine.TT().clear();
+                        engine.TT().clear(engine.threads());
                     }
                     case "hash" -> {
                         int MB = Integer.parseInt(value);
-                        engine.TT().resize(MB);
+                        try { engine.TT().resize(MB); }
+                        catch (IllegalStateException e) { System.out.println("info string " + e.getMessage()); }
+                    }
+                    case "hash file" -> {
+                        String path = String.join(" ", args.subList(args.indexOf("value") + 1, args.size()));
+                        try { engine.TT().setFile(path); }
+                        catch (IllegalStateException e) { System.out.println("info string " + e.getMessage()); }
+                    }
+                    case "threads" -> {
+                        engine.setThreads(Integer.parseInt(value));
                     }
                     case "book depth" -> {
                         bookDepth = Integer.parseInt(value);
                     }
+                    case "move overhead" -> {
+                        engine.timeManager().setMoveOverhead(Integer.parseInt(value));
+                    }
+                    case "nodestime" -> {
+                        engine.timeManager().setNodesTime(Integer.parseInt(value));
+                    }
                 }
             }
             case "uci" -> {
                 System.out.println("id name DeepJava");
                 System.out.println("id author Adolf Urian");
                 System.out.println("option name Clear Hash type button");
-                System.out.println("option name Hash type spin default 16 min 1 max 256");
+                System.out.println("option name Hash type spin default 16 min 1 max 65536");
+                System.out.println("option name Hash File type string default <empty>");
+                System.out.println("option name Threads type spin default 1 min 1 max 256");
+                System.out.println("option name Ponder type check default false");
                 System.out.println("option name Book Depth type spin default 8 min 0 max 20");
+                System.out.println("option name Move Overhead type spin default 10 min 0 max 5000");
+                System.out.println("option name nodestime type spin default 0 min 0 max 10000");
                 System.out.println("uciok");
             }
             case "position" -> {
@@ -118,8 +147,13 @@ public class UCI {
 
                 if (args.contains("moves")) {
                     args.add(":");
-                    for (String move : between(args, "moves", ":").split(" "))
-                        board.doMove(move);
+                    for (String move : between(args, "moves", ":").split(" ")) {
+                        // the moves after one that cannot be played make no sense either
+                        if (!board.doMove(move)) {
+                            System.out.println("info string illegal move " + move);
+                            break;
+                        }
+                    }
                     args.remove(":");
                 }
 
@@ -128,10 +162,18 @@ public class UCI {
             }
             case "ucinewgame" -> {
                 board.setFen("rnbqkbnr/pppppppp/8/8/8/8/PPPPPPPP/RNBQKBNR w KQkq - 0 1");
-                engine.TT().clear();
+                // a shared hash file keeps the results of the other processes
+                if (!engine.TT().isMapped())
+                    engine.TT().clear(engine.threads());
             }
+            case "bench" -> Bench.run(args.size() > 1 ? Integer.parseInt(args.get(1)) : 8);
             case "isready" -> System.out.println("readyok");
             case "stop" -> engine.timeManager().stop();
+            case "ponderhit" -> {
+                if (lastLimit != null)
+                    lastLimit.ponder = false;
+                engine.timeManager().ponderhit();
+            }
             case "quit" -> System.exit(0);
             case "say" -> System.out.println(String.join(" ", args.subList(1, args.size()))); // experiments from gui
         }
@@ -0,0 +1,19 @@
+package com.chess;
+
+public class Check {
+
+    public static void equal(long expected, long actual, String what) {
+        if (expected != actual)
+            throw new AssertionError(what + ": expected " + expected + " but was " + actual);
+    }
+    public static void equal(Object expected, Object actual, String what) {
+        if (!expected.equals(actual))
+            throw new AssertionError(what + ": expected " + expected + " but was " + actual);
+    }
+    public static void isTrue(boolean condition, String what) {
+        if (!condition)
+            throw new AssertionError(what);
+    }
+
+
+}
@@ -0,0 +1,68 @@
+package com.chess;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+
+public class EngineIsolationTest {
+
+    // engines searching side by side in one JVM must find what each finds alone
+    public static void run() {
+        final int depth = 6;
+        final int n = Bench.positions.length;
+        long[] nodes = new long[n];
+        int[] moves = new int[n];
+        long[] parallelNodes = new long[n];
+        int[] parallelMoves = new int[n];
+
+
+        PrintStream out = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        try {
+            for (int i = 0; i < n; i++) {
+                Engine engine = engine(Bench.positions[i]);
+                moves[i] = engine.search(limit(depth));
+                nodes[i] = engine.totalNodes();
+            }
+
+
+            Thread[] threads = new Thread[n];
+            for (int i = 0; i < n; i++) {
+                final int index = i;
+                threads[i] = new Thread(() -> {
+                    Engine engine = engine(Bench.positions[index]);
+                    parallelMoves[index] = engine.search(limit(depth));
+                    parallelNodes[index] = engine.totalNodes();
+                });
+                threads[i].start();
+            }
+            for (Thread thread : threads)
+                thread.join();
+        } catch (InterruptedException e) {
+            throw new AssertionError(e);
+        } finally {
+            System.setOut(out);
+        }
+
+
+        for (int i = 0; i < n; i++) {
+            Check.equal(nodes[i], parallelNodes[i], "nodes of " + Bench.positions[i]);
+            Check.equal(moves[i], parallelMoves[i], "best move of " + Bench.positions[i]);
+        }
+    }
+
+
+    private static Engine engine(String fen) {
+        Board board = new Board();
+        board.setFen(fen);
+        return new Engine(board);
+    }
+
+
+    private static TimeLimit limit(int depth) {
+        TimeLimit limit = new TimeLimit();
+        limit.depth = depth;
+        return limit;
+    }
+
+
+}
@@ -0,0 +1,58 @@
+package com.chess;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+public class EvalCacheTest {
+
+    /*
+       replays a fixed set of random games through one evaluator with an
+       engine sized cache and checks every value against an evaluation
+       that cannot come from a cache or from the previous position. the
+       same pass checks that no two positions of the set share a key
+                                                                     */
+    private static final int games = 300;
+    private static final int plies = 150;
+
+
+    public static void run() {
+        Evaluator cached = new Evaluator(new EvalCache(1 << 18));
+        EvalCache single = new EvalCache(1);
+        Evaluator fresh = new Evaluator(single);
+        Board other = new Board();
+        Map<Long, String> keys = new HashMap<>();
+        Random random = new Random(20261018L);
+        int positions = 0;
+
+
+        Board board = new Board();
+        for (int game = 0; game < games; game++) {
+            board.setFen(Bench.positions[game % Bench.positions.length]);
+            for (int ply = 0; ply < plies; ply++) {
+                String fen = board.generateFen();
+                String position = fen.substring(0, fen.lastIndexOf(' ', fen.lastIndexOf(' ') - 1));
+                String previous = keys.putIfAbsent(board.hashKey(), position);
+                Check.isTrue(previous == null || previous.equals(position), "same key for " + previous + " and " + position);
+
+
+                // evaluating another position first leaves different scratch state behind
+                fresh.evaluate(other);
+                single.clear();
+                Check.equal(fresh.evaluate(board), cached.evaluate(board), "eval of " + fen);
+                positions++;
+
+
+                List<Integer> moves = board.legalMoves();
+                if (moves.isEmpty() || board.fiftyMove() >= 100)
+                    break;
+                board.doMove(moves.get(random.nextInt(moves.size())));
+            }
+        }
+        Check.isTrue(positions > 20000, "only " + positions + " positions replayed");
+        Check.isTrue(cached.cacheHits() > 0, "the cache was never hit");
+    }
+
+
+}
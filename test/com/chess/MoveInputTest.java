@@ -0,0 +1,29 @@
+package com.chess;
+
+public class MoveInputTest {
+
+    // moves given as text are played only when legal and leave the board alone otherwise
+    public static void run() {
+        Board board = new Board();
+        board.setFen("rnbqkbnr/pppp1ppp/8/4p2Q/4P3/8/PPPP1PPP/RNB1KBNR b KQkq - 1 2");
+        String fen = board.generateFen();
+
+
+        // pinned pawn, empty square, own piece, not a move, no promotion piece
+        for (String move : new String[] {"f7f6", "e6e5", "e8d8", "xx", "e2e4e", "", "a1a1"}) {
+            Check.isTrue(!board.doMove(move), move + " was played");
+            Check.equal(fen, board.generateFen(), "position after " + move);
+        }
+
+
+        Check.isTrue(board.doMove("g7g6"), "g7g6 was refused");
+        Check.isTrue(board.doMove("h5e5"), "h5e5 was refused");
+
+
+        board.setFen("8/4P1k1/8/8/8/8/8/4K3 w - - 0 1");
+        Check.isTrue(!board.doMove("e7e8"), "a promotion without a piece was played");
+        Check.isTrue(board.doMove("e7e8q"), "e7e8q was refused");
+    }
+
+
+}
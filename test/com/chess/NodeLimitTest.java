@@ -0,0 +1,49 @@
+package com.chess;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+
+public class NodeLimitTest {
+
+    public static void run() {
+        PrintStream out = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        try {
+            // one thread stops at exactly the limit, every time
+            for (int i = 0; i < 2; i++) {
+                Engine engine = engine(1);
+                engine.search(limit(0, 100000L));
+                Check.equal(100000L, engine.totalNodes(), "nodes of a single thread search");
+            }
+
+
+            // counters left by a longer search must not end the next one early
+            Engine engine = engine(3);
+            engine.search(limit(9, 0L));
+            engine.timeManager().resetTimeControl();
+            engine.search(limit(0, 50000L));
+            Check.isTrue(engine.totalNodes() >= 50000L, "search stopped at " + engine.totalNodes() + " of 50000 nodes");
+        } finally {
+            System.setOut(out);
+        }
+    }
+
+
+    private static Engine engine(int threads) {
+        Board board = new Board();
+        board.setFen(Bench.positions[2]);
+        Engine engine = new Engine(board);
+        engine.setThreads(threads);
+        return engine;
+    }
+
+
+    private static TimeLimit limit(int depth, long nodes) {
+        TimeLimit limit = new TimeLimit();
+        limit.depth = depth;
+        limit.nodes = nodes;
+        return limit;
+    }
+
+
+}
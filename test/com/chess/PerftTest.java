@@ -0,0 +1,40 @@
+package com.chess;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+
+public class PerftTest {
+
+    // the usual perft suite, counts from the chess programming wiki
+    private static final String[][] positions = {
+        {"rnbqkbnr/pppppppp/8/8/8/8/PPPPPPPP/RNBQKBNR w KQkq - 0 1", "4", "197281"},
+        {"r3k2r/p1ppqpb1/bn2pnp1/3PN3/1p2P3/2N2Q1p/PPPBBPPP/R3K2R w KQkq - 0 1", "3", "97862"},
+        {"8/2p5/3p4/KP5r/1R3p1k/8/4P1P1/8 w - - 0 1", "5", "674624"},
+        {"r3k2r/Pppp1ppp/1b3nbN/nP6/BBP1P3/q4N2/Pp1P2PP/R2Q1RK1 w kq - 0 1", "4", "422333"},
+        {"rnbq1k1r/pp1Pbppp/2p5/8/2B5/8/PPP1NnPP/RNBQK2R w KQ - 1 8", "3", "62379"},
+        {"r4rk1/1pp1qppp/p1np1n2/2b1p1B1/2B1P1b1/P1NP1N2/1PP1QPPP/R4RK1 w - - 0 10", "4", "3894594"},
+    };
+
+
+    public static void run() {
+        PrintStream out = System.out;
+        for (String[] position : positions) {
+            Board board = new Board();
+            board.setFen(position[0]);
+            String fen = board.generateFen();
+
+
+            // perft prints every root move
+            System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+            long nodes;
+            try { nodes = new Perft(board).perft(Integer.parseInt(position[1])); }
+            finally { System.setOut(out); }
+
+
+            Check.equal(Long.parseLong(position[2]), nodes, "perft " + position[1] + " of " + position[0]);
+            Check.equal(fen, board.generateFen(), "position after perft");
+        }
+    }
+
+
+}
@@ -0,0 +1,124 @@
+package com.chess;
+
+import java.nio.ByteBuffer;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.function.Consumer;
+
+import static com.chess.BoardConstants.*;
+
+public class SnapshotTest {
+
+    /*
+       saves positions of a fixed set of random games and of a knight
+       shuffle that repeats, sends them through the byte form at an
+       offset and restores them on a new board, which must then be the
+       same position with the same repetitions ahead and behind it
+                                                                     */
+    private static final int games = 40;
+    private static final int plies = 120;
+
+
+    public static void run() {
+        ByteBuffer buffer = ByteBuffer.allocate(2 * BoardSnapshot.SIZE);
+        Random random = new Random(20261018L);
+        Board board = new Board();
+        int positions = 0;
+
+
+        for (int game = 0; game < games; game++) {
+            board.setFen(Bench.positions[game % Bench.positions.length]);
+            for (int ply = 0; ply < plies; ply++) {
+                roundTrip(board, buffer);
+                positions++;
+
+
+                List<Integer> moves = board.legalMoves();
+                if (moves.isEmpty() || board.fiftyMove() >= 100)
+                    break;
+                board.doMove(moves.get(random.nextInt(moves.size())));
+            }
+        }
+        Check.isTrue(positions > 1000, "only " + positions + " positions saved");
+
+
+        board.setFen(Bench.positions[1]);
+        for (String move : "g1f3 g8f6 f3g1 f6g8 g1f3 g8f6 f3g1 f6g8".split(" ")) {
+            board.doMove(move);
+            roundTrip(board, buffer);
+        }
+        Check.isTrue(board.isRepetition(3), "the shuffle did not repeat");
+        board.doMove("b1c3");
+        roundTrip(board, buffer);
+
+
+        // every field of a corrupt buffer is refused and leaves the snapshot as it was
+        board.setFen(Bench.positions[1]);
+        board.doMove("e2e4");
+        BoardSnapshot saved = new BoardSnapshot();
+        board.save(saved);
+        final int o = BoardSnapshot.SIZE;
+        Map<String, Consumer<ByteBuffer>> corruptions = new LinkedHashMap<>();
+        corruptions.put("side to move", b -> b.putInt(o + 64, 2));
+        corruptions.put("piece out of range", b -> b.put(o + 40, (byte) 13));
+        corruptions.put("negative piece", b -> b.put(o + 40, (byte) -1));
+        corruptions.put("second king", b -> b.put(o + 40, (byte) W_KING));
+        corruptions.put("pawn on the last rank", b -> b.put(o + 62, (byte) B_PAWN));
+        corruptions.put("en passant square", b -> b.putInt(o + 68, 21));
+        corruptions.put("en passant target alone", b -> b.putInt(o + 68, NO_SQUARE));
+        corruptions.put("castling right", b -> b.putInt(o + 76, 16));
+        corruptions.put("castling without the rook", b -> b.put(o + 7, (byte) NO_PIECE));
+        corruptions.put("fifty move", b -> b.putInt(o + 80, -1));
+        corruptions.put("move counter", b -> b.putInt(o + 84, -1));
+        corruptions.put("game ply", b -> b.putInt(o + 88, -1));
+        corruptions.put("negative history length", b -> b.putInt(o + 92, -1));
+        corruptions.put("history past the fifty move window", b -> b.putInt(o + 92, 1));
+        corruptions.put("history too long", b -> b.putInt(o + 92, BoardSnapshot.MAX_HISTORY + 1));
+        corruptions.put("hash key", b -> b.putLong(o + 96, saved.hashKey() ^ 1L));
+
+
+        BoardSnapshot target = new BoardSnapshot();
+        saved.write(buffer, o);
+        target.read(buffer, o);
+        for (Map.Entry<String, Consumer<ByteBuffer>> corruption : corruptions.entrySet()) {
+            saved.write(buffer, o);
+            corruption.getValue().accept(buffer);
+            try {
+                target.read(buffer, o);
+                throw new AssertionError(corruption.getKey() + " was accepted");
+            } catch (IllegalArgumentException expected) {
+            }
+            Check.equal(saved.hashKey(), target.hashKey(), "snapshot after a refused " + corruption.getKey());
+        }
+        Board restored = new Board();
+        restored.restore(target);
+        Check.equal(board.generateFen(), restored.generateFen(), "fen after the refused reads");
+    }
+
+
+    private static void roundTrip(Board board, ByteBuffer buffer) {
+        BoardSnapshot saved = new BoardSnapshot();
+        board.save(saved);
+        saved.write(buffer, BoardSnapshot.SIZE);
+
+
+        BoardSnapshot read = new BoardSnapshot();
+        read.read(buffer, BoardSnapshot.SIZE);
+        Board restored = new Board();
+        restored.restore(read);
+
+
+        String fen = board.generateFen();
+        Check.equal(fen, restored.generateFen(), "fen");
+        Check.equal(board.hashKey(), restored.hashKey(), "hash key of " + fen);
+        Check.equal(board.pawnKey(), restored.pawnKey(), "pawn key of " + fen);
+        Check.equal(board.materialKey(), restored.materialKey(), "material key of " + fen);
+        Check.equal(board.isRepetition(2), restored.isRepetition(2), "repetition of " + fen);
+        Check.equal(board.hasUpcomingRepetition(0), restored.hasUpcomingRepetition(0), "upcoming repetition of " + fen);
+        Check.equal(board.countLegalMoves(), restored.countLegalMoves(), "legal moves of " + fen);
+    }
+
+
+}
@@ -0,0 +1,45 @@
+package com.chess;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+public class Tests {
+
+    /*
+                      ! Tests !
+       plain checks without a test framework, run with
+
+         javac -d out src/com/chess/*.java test/com/chess/*.java
+         java -ea -cp out com.chess.Tests
+
+       every check throws on failure and the run exits with status 1
+                                                                     */
+    public static void main(String[] args) {
+        Map<String, Runnable> tests = new LinkedHashMap<>();
+        tests.put("perft", PerftTest::run);
+        tests.put("engine isolation", EngineIsolationTest::run);
+        tests.put("eval cache", EvalCacheTest::run);
+        tests.put("node limit", NodeLimitTest::run);
+        tests.put("snapshot", SnapshotTest::run);
+        tests.put("move input", MoveInputTest::run);
+
+
+        int failed = 0;
+        for (Map.Entry<String, Runnable> test : tests.entrySet()) {
+            long start = System.currentTimeMillis();
+            try {
+                test.getValue().run();
+                System.out.printf("ok      %s (%d ms)%n", test.getKey(), System.currentTimeMillis() - start);
+            } catch (Throwable e) {
+                failed++;
+                System.out.printf("FAILED  %s: %s%n", test.getKey(), e);
+            }
+        }
+
+
+        System.out.printf("%d of %d passed%n", tests.size() - failed, tests.size());
+        System.exit(failed == 0 ? 0 : 1);
+    }
+
+
+}